@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.Artifact;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the helpers of the install logic in isolation, each applied to
+ * all files of a synthetic layout.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class HelperBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int jars;
+
+	@Param({ "flat", "nested" })
+	public String layout;
+
+	private SyntheticLayout synthetic;
+
+	private List<String> fileNames;
+
+	private List<Path> targets;
+
+	private List<File> sources;
+
+	private ImageJDirectoryIndex index;
+
+	private BenchmarkMojo mojo;
+
+	@Setup(Level.Trial)
+	public void generate() throws IOException {
+		synthetic = new SyntheticLayout(jars, "nested".equals(layout));
+		fileNames = synthetic.fileNames();
+		targets = new ArrayList<>();
+		sources = new ArrayList<>();
+		final Path jarsDirectory = synthetic.imagejDirectory.toPath().resolve(
+			"jars");
+		for (final Artifact artifact : synthetic.artifacts.keySet()) {
+			sources.add(artifact.getFile());
+			targets.add(jarsDirectory.resolve(artifact.getFile().getName()));
+		}
+		index = new ImageJDirectoryIndex(synthetic.imagejDirectory.toPath());
+		index.getEncroachingVersions(targets.get(0));
+		mojo = new BenchmarkMojo(null);
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException {
+		synthetic.delete();
+	}
+
+	/** Parses every file name, as on the first encounter. */
+	@Benchmark
+	public void parseFileNames(final Blackhole blackhole) {
+		for (final String fileName : fileNames) {
+			blackhole.consume(VersionedFileName.doParse(fileName));
+		}
+	}
+
+	/** Parses every file name again, i.e. looks up the remembered result. */
+	@Benchmark
+	public void parseFileNamesMemoized(final Blackhole blackhole) {
+		for (final String fileName : fileNames) {
+			blackhole.consume(VersionedFileName.parse(fileName));
+		}
+	}
+
+	/** Walks ImageJ.app/ and looks up the other versions of one artifact. */
+	@Benchmark
+	public Object indexDirectory() throws IOException {
+		return new ImageJDirectoryIndex(synthetic.imagejDirectory.toPath())
+			.getEncroachingVersions(targets.get(0));
+	}
+
+	/** Looks up the other versions of every artifact in a populated index. */
+	@Benchmark
+	public void getEncroachingVersions(final Blackhole blackhole)
+		throws IOException
+	{
+		for (final Path target : targets) {
+			blackhole.consume(index.getEncroachingVersions(target));
+		}
+	}
+
+	/** Determines for every artifact whether it is a plugin, opening it. */
+	@Benchmark
+	public void isIJ1Plugin(final Blackhole blackhole) {
+		final BenchmarkMojo fresh = new BenchmarkMojo(null);
+		for (final File source : sources) {
+			blackhole.consume(fresh.isIJ1Plugin(source));
+		}
+	}
+
+	/** Determines for every artifact whether it is a plugin, from the cache. */
+	@Benchmark
+	public void isIJ1PluginCached(final Blackhole blackhole) {
+		for (final File source : sources) {
+			blackhole.consume(mojo.isIJ1Plugin(source));
+		}
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+
+/**
+ * A synthetic local repository and ImageJ.app/ directory.
+ * <p>
+ * Every tenth artifact is an ImageJ 1.x plugin, every twentieth has a
+ * {@code natives-linux} classifier. Half of the artifacts already have an
+ * older version in ImageJ.app/, and there are as many unrelated files. In the
+ * nested layout, the older versions and unrelated files are spread over 16
+ * subdirectories of {@code jars/}.
+ * </p>
+ */
+class SyntheticLayout {
+
+	final Path root;
+
+	final Path repository;
+
+	final File imagejDirectory;
+
+	final File cacheDirectory;
+
+	/** The artifacts to install, mapped to their subdirectory. */
+	final Map<Artifact, String> artifacts = new LinkedHashMap<>();
+
+	private final int count;
+
+	private final boolean nested;
+
+	public SyntheticLayout(final int count, final boolean nested)
+		throws IOException
+	{
+		this.count = count;
+		this.nested = nested;
+		root = Files.createTempDirectory("imagej-benchmark");
+		repository = root.resolve("repository");
+		imagejDirectory = root.resolve("ImageJ.app").toFile();
+		cacheDirectory = root.resolve("cache").toFile();
+
+		final Random random = new Random(count);
+		for (int i = 0; i < count; i++) {
+			final String groupId = "org.example.group" + (i % 50);
+			final String artifactId = artifactId(i);
+			final String version = "1." + (i % 7) + ".0";
+			final String classifier = i % 20 == 19 ? "natives-linux" : null;
+			final Path directory = repository.resolve(groupId.replace('.', '/'))
+				.resolve(artifactId).resolve(version);
+			final Path file = directory.resolve(artifactId + "-" + version +
+				(classifier == null ? "" : "-" + classifier) + ".jar");
+			writeJar(file, i % 10 == 0, 4096 + random.nextInt(12288), random);
+			Files.write(file.resolveSibling(file.getFileName() + ".sha1"), DigestCache
+				.compute(file).getBytes(StandardCharsets.US_ASCII));
+
+			final Artifact artifact = new DefaultArtifact(groupId, artifactId,
+				version, "compile", "jar", classifier, new DefaultArtifactHandler(
+					"jar"));
+			artifact.setFile(file.toFile());
+			artifacts.put(artifact, null);
+		}
+		resetImageJ();
+	}
+
+	/**
+	 * Recreates the initial ImageJ.app/ directory and forgets all caches.
+	 *
+	 * @throws IOException if the directory could not be recreated
+	 */
+	public void resetImageJ() throws IOException {
+		delete(imagejDirectory.toPath());
+		delete(cacheDirectory.toPath());
+		final Path jars = imagejDirectory.toPath().resolve("jars");
+		final Path plugins = imagejDirectory.toPath().resolve("plugins");
+		Files.createDirectories(jars);
+		Files.createDirectories(plugins);
+		for (int i = 0; i < count; i++) {
+			final Path directory = nested ? jars.resolve("sub" + (i % 16)) : jars;
+			Files.createDirectories(directory);
+			if (i % 2 == 0) {
+				final String name = artifactId(i) + "-0.9.0" + (i % 20 == 19
+					? "-natives-linux" : "") + ".jar";
+				Files.write((i % 10 == 0 ? plugins : directory).resolve(name),
+					new byte[1024]);
+			}
+			Files.write(directory.resolve("unrelated" + i + "-2.0.jar"),
+				new byte[1024]);
+		}
+	}
+
+	/**
+	 * Lists all file names in ImageJ.app/ and of all artifacts.
+	 *
+	 * @return the file names
+	 * @throws IOException if ImageJ.app/ could not be walked
+	 */
+	public List<String> fileNames() throws IOException {
+		final List<String> result = new ArrayList<>();
+		Files.walkFileTree(imagejDirectory.toPath(), new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(final Path file,
+				final BasicFileAttributes attrs)
+			{
+				result.add(file.getFileName().toString());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		for (final Artifact artifact : artifacts.keySet()) {
+			result.add(artifact.getFile().getName());
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes everything.
+	 *
+	 * @throws IOException if something could not be deleted
+	 */
+	public void delete() throws IOException {
+		delete(root);
+	}
+
+	private static String artifactId(final int i) {
+		return i % 10 == 0 ? "Plugin_" + i : "library" + i;
+	}
+
+	private static void writeJar(final Path file, final boolean plugin,
+		final int size, final Random random) throws IOException
+	{
+		Files.createDirectories(file.getParent());
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+		try (final OutputStream out = Files.newOutputStream(file);
+				final JarOutputStream jar = new JarOutputStream(out, manifest))
+		{
+			if (plugin) {
+				jar.putNextEntry(new JarEntry("plugins.config"));
+				jar.write("Plugins, \"Example\", Example_PlugIn\n".getBytes(
+					StandardCharsets.UTF_8));
+			}
+			final byte[] data = new byte[size];
+			random.nextBytes(data);
+			jar.putNextEntry(new JarEntry("data.bin"));
+			jar.write(data);
+		}
+	}
+
+	private static void delete(final Path path) throws IOException {
+		if (!Files.exists(path)) return;
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(final Path file,
+				final BasicFileAttributes attrs) throws IOException
+			{
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir,
+				final IOException exc) throws IOException
+			{
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
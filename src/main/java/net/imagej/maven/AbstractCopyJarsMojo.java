@@ -31,26 +31,48 @@
 
 package net.imagej.maven;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import net.imagej.maven.InstallMetrics.Counter;
+import net.imagej.maven.InstallMetrics.Phase;
+import net.imagej.maven.InstallMetrics.Skip;
+import net.imagej.maven.InstallPlan.Action;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.interpolation.EnvarBasedValueSource;
 import org.codehaus.plexus.interpolation.ObjectBasedValueSource;
@@ -59,7 +81,6 @@ import org.codehaus.plexus.interpolation.PrefixedValueSourceWrapper;
 import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
 import org.codehaus.plexus.interpolation.RecursionInterceptor;
 import org.codehaus.plexus.interpolation.RegexBasedInterpolator;
-import org.codehaus.plexus.util.FileUtils;
 import org.scijava.util.VersionUtils;
 
 /**
@@ -74,11 +95,226 @@ public abstract class AbstractCopyJarsMojo extends AbstractMojo {
 	public static final String imagejSubdirectoryProperty = "imagej.app.subdirectory";
 	public static final String deleteOtherVersionsProperty = "delete.other.versions";
 	public static final String deleteOtherVersionsPolicyProperty = "imagej.deleteOtherVersions";
+	public static final String installThreadsProperty = "imagej.install.threads";
+	public static final String downloadThreadsProperty = "imagej.download.threads";
+	public static final String installModeProperty = "imagej.install.mode";
+	public static final String storeDirectoryProperty = "imagej.store.directory";
+	public static final String stagedInstallProperty = "imagej.install.staged";
+	public static final String planProperty = "imagej.plan";
+	public static final String checksumPolicyProperty = "imagej.checksum.policy";
+	public static final String updaterChecksumsProperty = "imagej.updater.checksums";
+	public static final String pluginIndexProperty = "imagej.plugin.index";
+	public static final String installAtEndProperty = "imagej.install.atEnd";
+	public static final String forceResolveProperty = "imagej.resolve.force";
+	public static final String updatePolicyProperty = "imagej.update.policy";
+	public static final String metricsFileProperty = "imagej.metrics.file";
+	public static final String logMetricsProperty = "imagej.metrics.log";
+
+	/**
+	 * The directory inside ImageJ.app/ where this plugin keeps its records.
+	 */
+	static final String STATE_DIRECTORY = ".imagej-maven-plugin";
 
 	public enum OtherVersions {
 			always, older, never
 	}
 
+	public enum InstallMode {
+			copy, hardlink, reflink, symlink
+	}
+
+	public enum ChecksumPolicy {
+			ignore, warn, fail
+	}
+
+	/**
+	 * How to put .jar files into the ImageJ.app/ directory.
+	 * <p>
+	 * {@code copy} copies the files. {@code hardlink} and {@code symlink} link
+	 * to the files in the local repository instead, which saves space but means
+	 * that modifying the files in ImageJ.app/ modifies the local repository.
+	 * {@code reflink} makes copy-on-write clones on file systems supporting
+	 * them (e.g. Btrfs, XFS, APFS). Whenever a link or clone cannot be made,
+	 * e.g. because the local repository lives on a different file system, the
+	 * file is copied instead.
+	 * </p>
+	 */
+	@Parameter(property = installModeProperty, defaultValue = "copy")
+	private InstallMode installMode = InstallMode.copy;
+
+	/**
+	 * A content-addressed store to share the .jar files of several ImageJ.app/
+	 * directories.
+	 * <p>
+	 * If set, every installed file is added to the store once, named by its
+	 * SHA-1 digest, and ImageJ.app/ links to it according to the
+	 * {@code imagej.install.mode}; {@code copy} means {@code hardlink} in this
+	 * case. The ImageJ.app/ directories are registered in the store, so that
+	 * the {@code gc-store} goal can delete the files none of them refers to
+	 * anymore.
+	 * </p>
+	 */
+	@Parameter(property = storeDirectoryProperty)
+	private File storeDirectory;
+
+	private ContentStore contentStore;
+
+	/**
+	 * Whether to install all artifacts at once.
+	 * <p>
+	 * If set, the new {@code jars/} and {@code plugins/} directories (and the
+	 * subdirectory, if any) are prepared in
+	 * {@code .imagej-maven-plugin/staging}, linking to the unchanged files, and
+	 * then swapped into place by renaming them. If anything goes wrong before
+	 * that, ImageJ.app/ is left untouched. The replaced directories are kept in
+	 * {@code .imagej-maven-plugin/previous} and can be restored via the
+	 * {@code rollback} goal. Note that other versions are only looked for in
+	 * the staged directories.
+	 * </p>
+	 */
+	@Parameter(property = stagedInstallProperty, defaultValue = "false")
+	private boolean stagedInstall;
+
+	/**
+	 * Whether to only show what installing the artifacts would do.
+	 * <p>
+	 * The artifacts go through the same decisions as when installing them, but
+	 * instead of copying, linking or deleting files, the actions are listed
+	 * together with the sizes of the files and the number of bytes that would
+	 * be written and read. Nothing in ImageJ.app/ is modified; a staged
+	 * install is planned as a regular one.
+	 * </p>
+	 */
+	@Parameter(property = planProperty, defaultValue = "false")
+	private boolean plan;
+
+	/** The plan being collected, if {@link #plan} is set. */
+	private volatile InstallPlan installPlan;
+
+	/**
+	 * What to do if the file of a release artifact does not match the
+	 * {@code .sha1} or {@code .sha256} checksum next to it in the repository.
+	 * <p>
+	 * The checksums are computed while the file is copied, so that it is read
+	 * only once; linked files are read once to verify them. {@code warn} logs
+	 * mismatches, {@code fail} fails the build before the corrupt file is
+	 * moved into place, and {@code ignore} skips the verification. Files
+	 * without published checksums, and SNAPSHOT artifacts, are not verified.
+	 * </p>
+	 */
+	@Parameter(property = checksumPolicyProperty, defaultValue = "warn")
+	private ChecksumPolicy checksumPolicy = ChecksumPolicy.warn;
+
+	/** The indices of staging directories, which are not shared. */
+	private final Map<Path, ImageJDirectoryIndex> stagingIndices = new HashMap<>();
+
+	private final Map<Path, InstallLedger> ledgers = new HashMap<>();
+
+	/**
+	 * Whether to record the installed files in the checksum cache of the ImageJ
+	 * updater ({@code .checksums}).
+	 * <p>
+	 * Otherwise, the updater needs to checksum every .jar file when it starts
+	 * up for the first time after the installation. The checksums are cached
+	 * in the local repository, so each artifact is read only once.
+	 * </p>
+	 */
+	@Parameter(property = updaterChecksumsProperty, defaultValue = "false")
+	private boolean updaterChecksums;
+
+	private final Map<Path, UpdaterChecksums> updaterCaches = new HashMap<>();
+
+	/**
+	 * Whether to export a consolidated index of the plugins in the .jar files
+	 * of ImageJ.app/ ({@code plugin-index.txt}).
+	 * <p>
+	 * The index aggregates the {@code plugins.config} entries and the SciJava
+	 * annotation indexes ({@code META-INF/json/*}) of all .jar files in
+	 * {@code jars/} and {@code plugins/}. ImageJ itself does not read it, and
+	 * still scans the .jar files at startup; the index is meant for custom
+	 * launchers and tools that want to discover the plugins without opening
+	 * every .jar file. Only the .jar files that changed since the last install
+	 * are opened to update it.
+	 * </p>
+	 */
+	@Parameter(property = pluginIndexProperty, defaultValue = "false")
+	private boolean pluginIndex;
+
+	private final Map<Path, PluginIndex> pluginIndices = new HashMap<>();
+
+	/**
+	 * Whether to log a summary of the timings and counters of the execution.
+	 * <p>
+	 * They are also written as JSON, see {@code imagej.metrics.file}.
+	 * </p>
+	 */
+	@Parameter(property = logMetricsProperty, defaultValue = "false")
+	private boolean logMetrics;
+
+	private final InstallMetrics metrics = new InstallMetrics();
+
+	/** Whether any file was installed or deleted since the last reset. */
+	private volatile boolean changed;
+
+	private DigestCache digestCache;
+
+	private FileStampCache pluginCache;
+
+	private FileStampCache updaterDigestCache;
+
+	/**
+	 * Returns the directory in which information about artifacts is cached
+	 * between builds.
+	 * 
+	 * @return the cache directory, or {@code null} if nothing should be cached
+	 *         between builds
+	 */
+	protected File getCacheDirectory() {
+		return null;
+	}
+
+	/**
+	 * Returns the cache directory for a given local repository.
+	 * 
+	 * @param localRepository the local repository
+	 * @return the cache directory
+	 */
+	protected static File getCacheDirectory(
+		final ArtifactRepository localRepository)
+	{
+		if (localRepository == null) return null;
+		return new File(localRepository.getBasedir(),
+			".cache/imagej-maven-plugin");
+	}
+
+	protected ChecksumPolicy getChecksumPolicy() {
+		return checksumPolicy;
+	}
+
+	InstallMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Reports the timings and counters of this execution.
+	 * 
+	 * @param goal the goal that is executed
+	 * @param imagejDirectory the ImageJ.app/ directory
+	 * @param file the file to write the metrics to as JSON, or {@code null}
+	 */
+	protected void reportMetrics(final String goal, final File imagejDirectory,
+		final File file)
+	{
+		if (logMetrics) metrics.log(getLog());
+		if (file == null) return;
+		try {
+			metrics.write(file, goal, imagejDirectory);
+		}
+		catch (final IOException e) {
+			getLog().warn("Could not write metrics to " + file, e);
+		}
+	}
+
 	protected boolean hasIJ1Dependency(final MavenProject project) {
 		final List<Dependency> dependencies = project.getDependencies();
 		for (final Dependency dependency : dependencies) {
@@ -138,68 +374,548 @@ public abstract class AbstractCopyJarsMojo extends AbstractMojo {
 		installArtifact(artifact, imagejDirectory, "", force, otherVersionsPolicy);
 	}
 
+	/**
+	 * Fetches the file of an artifact, e.g. by downloading it.
+	 */
+	protected interface ArtifactFetcher {
+
+		/**
+		 * Sets the file of an artifact that does not have one yet.
+		 *
+		 * @param artifact the artifact
+		 * @throws IOException if the file could not be obtained
+		 */
+		void fetch(Artifact artifact) throws IOException;
+	}
+
+	/**
+	 * Installs a number of artifacts, using up to {@code threads} worker
+	 * threads.
+	 * <p>
+	 * Artifacts whose file names share the same base name and suffix are
+	 * installed one after the other, in iteration order, by the same worker, so
+	 * that the {@link OtherVersions} policy behaves exactly as if all artifacts
+	 * were installed sequentially.
+	 * </p>
+	 * 
+	 * @param artifacts the artifacts to install, mapped to the subdirectory they
+	 *          should be installed into ({@code null} for the default location)
+	 * @param imagejDirectory the ImageJ.app/ directory
+	 * @param force whether to overwrite files that are already there
+	 * @param otherVersionsPolicy what to do with other versions of the artifacts
+	 * @param threads the maximal number of worker threads
+	 * @throws MojoExecutionException if an artifact could not be installed
+	 */
+	protected void installArtifacts(final Map<Artifact, String> artifacts,
+		final File imagejDirectory, final boolean force,
+		final OtherVersions otherVersionsPolicy, final int threads)
+		throws MojoExecutionException
+	{
+		installArtifacts(artifacts, imagejDirectory, force, otherVersionsPolicy,
+			threads, null);
+	}
+
+	/**
+	 * Installs a number of artifacts, fetching their files on the fly.
+	 * <p>
+	 * Each worker thread fetches the files of the artifacts lacking one right
+	 * before installing them, so that the artifacts fetched first are installed
+	 * while the others are still being fetched.
+	 * </p>
+	 *
+	 * @param artifacts the artifacts to install, mapped to the subdirectory they
+	 *          should be installed into ({@code null} for the default location)
+	 * @param imagejDirectory the ImageJ.app/ directory
+	 * @param force whether to overwrite files that are already there
+	 * @param otherVersionsPolicy what to do with other versions of the artifacts
+	 * @param threads the maximal number of worker threads
+	 * @param fetcher fetches the files of the artifacts that lack one, or
+	 *          {@code null}
+	 * @throws MojoExecutionException if an artifact could not be installed
+	 */
+	protected void installArtifacts(final Map<Artifact, String> artifacts,
+		final File imagejDirectory, final boolean force,
+		final OtherVersions otherVersionsPolicy, final int threads,
+		final ArtifactFetcher fetcher) throws MojoExecutionException
+	{
+		// group the artifacts by the files they might encroach upon
+		final Map<String, List<Artifact>> groups = new LinkedHashMap<>();
+		for (final Artifact artifact : artifacts.keySet()) {
+			String key = artifact.getFile() == null && fetcher == null ? null : //
+				ImageJDirectoryIndex.key(getTargetFileName(artifact));
+			if (key == null) key = "\0" + groups.size();
+			groups.computeIfAbsent(key, k -> new ArrayList<>()).add(artifact);
+		}
+
+		final InstallCoordinator coordinator = InstallCoordinator.get(Paths.get(
+			imagejDirectory.toURI()));
+		// keep the garbage collector out until the ledger is saved
+		final Closeable storeLock = plan ? null : lockContentStore(
+			imagejDirectory);
+		if (plan) installPlan = new InstallPlan(Paths.get(imagejDirectory
+			.toURI()));
+		changed = false;
+		try {
+			final Closeable lock = stagedInstall && !plan ? coordinator
+				.lockExclusive() : coordinator.lockShared();
+			try {
+				if (stagedInstall && !plan) {
+					installStaged(groups.values(), artifacts, imagejDirectory, force,
+						otherVersionsPolicy, threads, fetcher);
+				}
+				else {
+					installArtifacts(groups.values(), artifacts, imagejDirectory, force,
+						otherVersionsPolicy, threads, fetcher);
+				}
+				if (plan) installPlan.log(getLog());
+			}
+			finally {
+				try {
+					// while still holding the lock
+					if (changed) invalidateCdsArchive(imagejDirectory);
+					if (!plan) updatePluginIndex(imagejDirectory);
+				}
+				finally {
+					lock.close();
+				}
+			}
+		}
+		catch (final IOException e) {
+			throw new MojoExecutionException("Could not lock " + imagejDirectory +
+				": " + e.getMessage(), e);
+		}
+		finally {
+			installPlan = null;
+			try {
+				getDigestCache().save();
+				getPluginCache().save();
+				getUpdaterDigestCache().save();
+			}
+			catch (final IOException e) {
+				getLog().warn("Could not save cache", e);
+			}
+			for (final UpdaterChecksums checksums : new LinkedHashSet<>(updaterCaches
+				.values()))
+			{
+				try {
+					checksums.save();
+				}
+				catch (final IOException e) {
+					getLog().warn("Could not save the updater's checksums", e);
+				}
+			}
+			for (final PluginIndex index : new LinkedHashSet<>(pluginIndices
+				.values()))
+			{
+				try {
+					index.save();
+				}
+				catch (final IOException e) {
+					getLog().warn("Could not save the plugin index", e);
+				}
+			}
+
+			for (final InstallLedger ledger : ledgers.values()) {
+				try {
+					ledger.save();
+				}
+				catch (final IOException e) {
+					getLog().warn("Could not save install ledger", e);
+				}
+			}
+			if (storeLock != null) {
+				try {
+					storeLock.close();
+				}
+				catch (final IOException e) {
+					getLog().warn("Could not unlock " + storeDirectory, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Takes the shared lock of the content store, if any, and registers the
+	 * ImageJ.app/ directory in it.
+	 *
+	 * @return the lock, or {@code null} if there is no content store
+	 */
+	private Closeable lockContentStore(final File imagejDirectory)
+		throws MojoExecutionException
+	{
+		final ContentStore store = getContentStore();
+		if (store == null) return null;
+		Closeable lock = null;
+		try {
+			lock = store.lock();
+			store.register(Paths.get(imagejDirectory.toURI()));
+			return lock;
+		}
+		catch (final IOException e) {
+			if (lock != null) {
+				try {
+					lock.close();
+				}
+				catch (final IOException e2) {
+					e.addSuppressed(e2);
+				}
+			}
+			throw new MojoExecutionException("Could not register " +
+				imagejDirectory + " in " + storeDirectory + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Installs the artifacts into a {@link StagedInstall}, and commits it.
+	 */
+	private void installStaged(final Collection<List<Artifact>> groups,
+		final Map<Artifact, String> artifacts, final File imagejDirectory,
+		final boolean force, final OtherVersions otherVersionsPolicy,
+		final int threads, final ArtifactFetcher fetcher)
+		throws MojoExecutionException
+	{
+		final Path directory = Paths.get(imagejDirectory.toURI()).normalize();
+		final Collection<String> names = getStagedDirectories(artifacts);
+		final StagedInstall staging = new StagedInstall(directory, names);
+		final Path root = staging.getRoot();
+		final InstallLedger ledger = new InstallLedger(root, InstallLedger.getFile(
+			directory));
+		boolean committed = false;
+		try {
+			staging.prepare();
+			synchronized (this) {
+				ledgers.put(root, ledger);
+				stagingIndices.put(root, new ImageJDirectoryIndex(root, metrics));
+				if (updaterChecksums) {
+					updaterCaches.put(root, getUpdaterChecksums(directory));
+				}
+				if (pluginIndex) pluginIndices.put(root, getPluginIndex(directory));
+			}
+			changed = false;
+			installArtifacts(groups, artifacts, root.toFile(), force,
+				otherVersionsPolicy, threads, fetcher);
+			if (!changed) {
+				getLog().info("Nothing changed in " + directory);
+				return;
+			}
+			getLog().info("Swapping staged " + names + " into " + directory);
+			staging.commit(InstallLedger.getFile(directory));
+			committed = true;
+		}
+		catch (final IOException e) {
+			throw new MojoExecutionException("Could not install into " + root +
+				": " + e.getMessage(), e);
+		}
+		finally {
+			synchronized (this) {
+				ledgers.remove(root);
+				stagingIndices.remove(root);
+			}
+			final UpdaterChecksums checksums = getUpdaterChecksums(directory);
+			final PluginIndex index = getPluginIndex(directory);
+			if (committed) {
+				getDigestCache().relocate(root, directory);
+				if (checksums != null) checksums.relocate(root, directory);
+				if (index != null) index.relocate(root, directory);
+				try {
+					ledger.moveTo(directory);
+					ledger.save();
+				}
+				catch (final IOException e) {
+					getLog().warn("Could not save install ledger", e);
+				}
+			}
+			else {
+				getDigestCache().removeAll(root);
+				if (checksums != null) checksums.removeAll(root);
+				if (index != null) index.removeAll(root);
+				try {
+					staging.discard();
+				}
+				catch (final IOException e) {
+					getLog().warn("Could not delete " + root, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the class-data-sharing archive (see {@link CdsArchiveMojo}), if
+	 * any, as it does not match the classpath anymore.
+	 */
+	private void invalidateCdsArchive(final File imagejDirectory) {
+		try {
+			if (new CdsArchive(imagejDirectory.toPath()).invalidate()) {
+				getLog().info("Invalidated the CDS archive of " + imagejDirectory);
+			}
+		}
+		catch (final IOException e) {
+			getLog().warn("Could not invalidate the CDS archive of " +
+				imagejDirectory, e);
+		}
+	}
+
+	/**
+	 * Determines the top-level directories of ImageJ.app/ that the artifacts
+	 * will be installed into.
+	 */
+	private static Collection<String> getStagedDirectories(
+		final Map<Artifact, String> artifacts)
+	{
+		final Collection<String> result = new LinkedHashSet<>(Arrays.asList("jars",
+			"plugins"));
+		for (final String subdirectory : artifacts.values()) {
+			if (subdirectory == null) continue;
+			final Path path = Paths.get(subdirectory).normalize();
+			if (path.getNameCount() == 0) continue;
+			final String name = path.getName(0).toString();
+			if (name.isEmpty() || name.equals("..") || name.equals(STATE_DIRECTORY)) {
+				continue;
+			}
+			result.add(name);
+		}
+		return result;
+	}
+
+	private void installArtifacts(final Collection<List<Artifact>> groups,
+		final Map<Artifact, String> artifacts, final File imagejDirectory,
+		final boolean force, final OtherVersions otherVersionsPolicy,
+		final int threads, final ArtifactFetcher fetcher)
+		throws MojoExecutionException
+	{
+		if (threads <= 1 || groups.size() <= 1) {
+			for (final List<Artifact> group : groups) {
+				installArtifacts(group, artifacts, imagejDirectory, force,
+					otherVersionsPolicy, fetcher);
+			}
+			return;
+		}
+
+		final int poolSize = Math.min(threads, groups.size());
+		if (fetcher == null) {
+			getLog().info("Installing " + artifacts.size() + " artifacts with " +
+				poolSize + " threads");
+		}
+		final AtomicInteger counter = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(poolSize,
+			runnable -> {
+				final Thread thread = new Thread(runnable, "imagej-install-" + counter
+					.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		try {
+			final List<Future<Void>> futures = new ArrayList<>();
+			for (final List<Artifact> group : groups) {
+				futures.add(executor.submit(() -> {
+					installArtifacts(group, artifacts, imagejDirectory, force,
+						otherVersionsPolicy, fetcher);
+					return null;
+				}));
+			}
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MojoExecutionException("Interrupted while installing artifacts",
+				e);
+		}
+		catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof MojoExecutionException) {
+				throw (MojoExecutionException) cause;
+			}
+			throw new MojoExecutionException(cause.getMessage(), cause);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void installArtifacts(final List<Artifact> group,
+		final Map<Artifact, String> artifacts, final File imagejDirectory,
+		final boolean force, final OtherVersions otherVersionsPolicy,
+		final ArtifactFetcher fetcher) throws MojoExecutionException
+	{
+		for (final Artifact artifact : group) {
+			try {
+				final String subdirectory = artifacts.get(artifact);
+				if (fetcher != null && artifact.getFile() == null) {
+					final long downloading = metrics.start();
+					fetcher.fetch(artifact);
+					metrics.stop(Phase.download, downloading);
+				}
+				installArtifact(artifact, imagejDirectory, subdirectory == null ? ""
+					: subdirectory, force, otherVersionsPolicy);
+			}
+			catch (final IOException e) {
+				throw new MojoExecutionException("Couldn't download artifact " +
+					artifact + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
 	protected void installArtifact(final Artifact artifact,
 		final File imagejDirectory, final String subdirectory, final boolean force,
 		final OtherVersions otherVersionsPolicy) throws IOException
 	{
-		if (!"jar".equals(artifact.getType())) return;
-
-		final File source = artifact.getFile();
-		final File targetDirectory;
+		if (!"jar".equals(artifact.getType())) {
+			metrics.skip(Skip.notAJar);
+			return;
+		}
 
-		if (subdirectory != null && !subdirectory.equals("")) {
-			targetDirectory = new File(imagejDirectory, subdirectory);
-		} else if (isIJ1Plugin(source)) {
-			targetDirectory = new File(imagejDirectory, "plugins");
+		final Path directoryPath = Paths.get(imagejDirectory.toURI()).normalize();
+		if (isStaging(directoryPath)) {
+			installArtifact(artifact, imagejDirectory, directoryPath, subdirectory,
+				force, otherVersionsPolicy, new ArrayList<>());
+			return;
 		}
-		else if ("ome".equals(artifact.getGroupId()) ||
-			("loci".equals(artifact.getGroupId()) && (source.getName().startsWith(
-				"scifio-4.4.") || source.getName().startsWith("jai_imageio-4.4."))))
+
+		// other builds might install other versions of the same file concurrently
+		final String fileName = getTargetFileName(artifact);
+		final String key = ImageJDirectoryIndex.key(fileName);
+		try (final InstallCoordinator.Lock lock = InstallCoordinator.get(
+			directoryPath).lock(key == null ? fileName : key))
 		{
-			targetDirectory = new File(imagejDirectory, "jars/bio-formats");
+			final List<Path> modified = new ArrayList<>();
+			installArtifact(artifact, imagejDirectory, directoryPath, subdirectory,
+				force, otherVersionsPolicy, modified);
+			for (final Path path : modified) {
+				lock.modified(directoryPath.relativize(path));
+			}
+		}
+	}
+
+	/**
+	 * Installs an artifact, once any necessary lock is held.
+	 *
+	 * @param modified the list to add the installed and deleted files to
+	 */
+	private void installArtifact(final Artifact artifact,
+		final File imagejDirectory, final Path directoryPath,
+		final String subdirectory, final boolean force,
+		final OtherVersions otherVersionsPolicy, final List<Path> modified)
+		throws IOException
+	{
+		final File source = artifact.getFile();
+		final String fileName = getTargetFileName(artifact);
+		final InstallLedger ledger = getLedger(directoryPath);
+		final long verifying = metrics.start();
+		final Path unchanged = force ? null : getUnchanged(artifact, ledger,
+			imagejDirectory, subdirectory);
+		metrics.stop(Phase.verify, verifying);
+		final Path targetPath;
+		final File targetDirectory;
+		if (unchanged != null) {
+			// only the copy is skipped; other versions might have been dropped in
+			targetPath = unchanged;
+			targetDirectory = unchanged.getParent().toFile();
 		}
 		else {
-			targetDirectory = new File(imagejDirectory, "jars");
+			final long classifying = metrics.start();
+			if (subdirectory != null && !subdirectory.equals("")) {
+				targetDirectory = new File(imagejDirectory, subdirectory);
+			} else if (isIJ1Plugin(source)) {
+				targetDirectory = new File(imagejDirectory, "plugins");
+			}
+			else if ("ome".equals(artifact.getGroupId()) ||
+				("loci".equals(artifact.getGroupId()) && (source.getName()
+					.startsWith("scifio-4.4.") || source.getName().startsWith(
+						"jai_imageio-4.4."))))
+			{
+				targetDirectory = new File(imagejDirectory, "jars/bio-formats");
+			}
+			else {
+				targetDirectory = new File(imagejDirectory, "jars");
+			}
+			metrics.stop(Phase.classify, classifying);
+			targetPath = Paths.get(new File(targetDirectory, fileName).toURI())
+				.normalize();
 		}
-		final String fileName = "Fiji_Updater".equals(artifact.getArtifactId())
-			? artifact.getArtifactId() + ".jar" : source.getName();
-		final File target = new File(targetDirectory, fileName);
 
 		boolean newerVersion = false;
-		final Path directoryPath = Paths.get(imagejDirectory.toURI());
-		final Path targetPath = Paths.get(target.toURI());
+		final long scanning = metrics.start();
 		final Collection<Path> otherVersions = //
 			getEncroachingVersions(directoryPath, targetPath);
+		if (otherVersions != null) {
+			// files installed from other versions of the same artifact
+			for (final InstallLedger.Entry entry : ledger.getVersions(artifact)) {
+				final Path other = ledger.resolve(entry);
+				// the same file elsewhere, e.g. in a requested subdirectory
+				if (other.getFileName().equals(targetPath.getFileName())) continue;
+				if (!otherVersions.contains(other) &&
+					Files.exists(other))
+				{
+					otherVersions.add(other);
+				}
+			}
+		}
+		metrics.stop(Phase.scan, scanning);
 		if (otherVersions != null && !otherVersions.isEmpty()) {
 			for (final Path other : otherVersions) {
 				final Path otherName = other.getFileName();
 				switch (otherVersionsPolicy) {
 					case never:
 						getLog().warn("Possibly incompatible version exists: " + otherName);
+						if (installPlan != null) installPlan.add(Action.warn, other, 0, 0,
+							0, "possibly incompatible version");
 						break;
 					case older:
 						final String toInstall = artifact.getVersion();
-						final Matcher matcher = versionPattern.matcher(otherName.toString());
-						if (!matcher.matches()) break;
-						final String group = matcher.group(VERSION_INDEX);
-						if (group == null) {
+						final String otherVersion;
+						final InstallLedger.Entry recorded = ledger.get(other);
+						if (recorded != null) otherVersion = recorded.getVersion();
+						else {
+							final VersionedFileName parsed = VersionedFileName.parse(otherName
+								.toString());
+							if (parsed == null) break;
+							otherVersion = parsed.getVersion();
+						}
+						if (otherVersion == null) {
 							newerVersion = true;
 							getLog().warn("Impenetrable version suffix for file: " +
 								otherName);
+							if (installPlan != null) installPlan.add(Action.warn, other, 0,
+								0, 0, "impenetrable version suffix");
 						}
 						else {
-							final String otherVersion = group.substring(1);
 							newerVersion = VersionUtils.compare(toInstall, otherVersion) < 0;
 							if (majorVersion(toInstall) != majorVersion(otherVersion)) {
 								getLog().warn(
 									"Found other version that is incompatible according to SemVer: " +
 										otherVersion);
+								if (installPlan != null) installPlan.add(Action.warn, other, 0,
+									0, 0, "incompatible according to SemVer");
 							}
 						}
 						if (newerVersion) break;
 						//$FALL-THROUGH$
 					case always:
-						if (Files.deleteIfExists(other)) {
+						if (installPlan != null) {
+							if (Files.exists(other)) {
+								installPlan.add(Action.delete, other, Files.size(other), 0, 0,
+									"overridden");
+								newerVersion = false;
+							}
+							break;
+						}
+						final long deleting = metrics.start();
+						final boolean deleted = Files.deleteIfExists(other);
+						metrics.stop(Phase.delete, deleting);
+						if (deleted) {
+							getDirectoryIndex(directoryPath).remove(other);
+							getDigestCache().remove(other);
+							ledger.remove(other);
+							final UpdaterChecksums checksums = getUpdaterChecksums(
+								directoryPath);
+							if (checksums != null) checksums.remove(other);
+							final PluginIndex index = getPluginIndex(directoryPath);
+							if (index != null) index.remove(other);
+							changed = true;
+							modified.add(other);
+							metrics.increment(Counter.deletions);
 							getLog().info("Deleted overridden " + otherName);
 							newerVersion = false;
 						}
@@ -209,21 +925,524 @@ public abstract class AbstractCopyJarsMojo extends AbstractMojo {
 			}
 		}
 
-		if (!force && target.exists() &&
-			target.lastModified() > source.lastModified())
-		{
+		if (unchanged != null) {
+			getLog().info("Dependency " + fileName + " is already there; skipping");
+			metrics.skip(Skip.unchanged);
+			if (installPlan != null) installPlan.add(Action.upToDate, unchanged,
+				source.length(), 0, 0, null);
+			else {
+				// the updater's cache or the plugin index might be new in this run
+				recordUpdaterChecksum(directoryPath, source.toPath(), unchanged);
+				indexPlugins(directoryPath, unchanged);
+			}
+			return;
+		}
+
+		final long checking = metrics.start();
+		final boolean upToDate = !force && isUpToDate(artifact, targetPath) &&
+			getInstallation().equals(getMode(ledger, targetPath));
+		metrics.stop(Phase.verify, checking);
+		if (upToDate && installPlan != null) {
+			installPlan.add(Action.upToDate, targetPath, source.length(), 0, 0,
+				null);
+		}
+		else if (newerVersion && installPlan != null) {
+			installPlan.add(Action.newerExists, targetPath, source.length(), 0, 0,
+				null);
+		}
+		else if (installPlan != null) {
+			planInstall(artifact, targetPath);
+		}
+		else if (upToDate) {
 			getLog().info("Dependency " + fileName + " is already there; skipping");
+			ledger.put(artifact, targetPath, getSourceDigest(artifact),
+				getInstallation());
+			recordUpdaterChecksum(directoryPath, source.toPath(), targetPath);
+			indexPlugins(directoryPath, targetPath);
+			metrics.skip(Skip.upToDate);
 		}
 		else if (newerVersion) {
 			getLog().info("A newer version for " + fileName + " was detected; skipping");
+			metrics.skip(Skip.newerVersion);
 		}
 		else {
-			getLog().info("Copying " + fileName + " to " + targetDirectory);
-			FileUtils.copyFile(source, target);
+			final InstallMode mode = getInstallMode();
+			getLog().info((mode == InstallMode.hardlink ||
+				mode == InstallMode.symlink ? "Linking " : "Copying ") +
+				fileName + " to " + targetDirectory);
+			final Checksums checksums = checksumPolicy == ChecksumPolicy.ignore ||
+				artifact.isSnapshot() ? null : Checksums.read(source.toPath());
+			final long installing = metrics.start();
+			final ContentStore store = getContentStore();
+			final Path installSource = store == null ? source.toPath() : store.add(
+				source.toPath(), getDigestCache().lookup(source.toPath(),
+					FileStampCache.attributes(source.toPath()), !artifact.isSnapshot()),
+				metrics);
+			installFile(installSource, targetPath, checksums);
+			metrics.stop(Phase.install, installing);
+			changed = true;
+			modified.add(targetPath);
+			getDirectoryIndex(directoryPath).add(targetPath);
+			final String digest;
+			if (checksums == null) digest = getSourceDigest(artifact);
+			else {
+				// computed on the way; no need to trust the .sha1 file
+				digest = checksums.getSHA1();
+				getDigestCache().put(source.toPath(), digest);
+			}
+			getDigestCache().put(targetPath, digest);
+			ledger.put(artifact, targetPath, digest, getInstallation());
+			recordUpdaterChecksum(directoryPath, source.toPath(), targetPath);
+			indexPlugins(directoryPath, targetPath);
 		}
 	}
 
-	private static boolean isIJ1Plugin(final File file) {
+	/**
+	 * Records how an artifact would be installed by {@link #installFile}.
+	 *
+	 * @param artifact the artifact
+	 * @param target the location in the ImageJ.app/ directory
+	 * @throws IOException if the artifact's file could not be accessed
+	 */
+	private void planInstall(final Artifact artifact, final Path target)
+		throws IOException
+	{
+		final Path source = artifact.getFile().toPath();
+		final long size = Files.size(source);
+		final InstallMode mode = getInstallMode();
+		if (mode == InstallMode.copy) {
+			installPlan.add(Action.copy, target, size, size, size, null);
+			return;
+		}
+		long written = 0;
+		final ContentStore store = getContentStore();
+		if (store != null) {
+			final String digest = getDigestCache().lookup(source, FileStampCache
+				.attributes(source), !artifact.isSnapshot());
+			if (digest == null || !Files.exists(store.getBlob(digest))) {
+				written = size;
+			}
+		}
+		// linked files are read once to verify them
+		final boolean verify = checksumPolicy != ChecksumPolicy.ignore &&
+			!artifact.isSnapshot() && Checksums.read(source) != null;
+		installPlan.add(Action.link, target, size, written, written + (verify
+			? size : 0), store == null ? mode.name() : mode + " into the store");
+	}
+
+	/**
+	 * Records an installed file in the checksum cache of the ImageJ updater, if
+	 * requested.
+	 *
+	 * @param directory the ImageJ.app/ (or staging) directory
+	 * @param source the artifact's file
+	 * @param target the installed file, with the same contents
+	 * @throws IOException if the installed file could not be accessed
+	 */
+	private void recordUpdaterChecksum(final Path directory, final Path source,
+		final Path target) throws IOException
+	{
+		final UpdaterChecksums checksums = getUpdaterChecksums(directory);
+		if (checksums == null) return;
+		final BasicFileAttributes attributes = FileStampCache.attributes(source);
+		String checksum = getUpdaterDigestCache().get(source, attributes);
+		if (checksum == null) {
+			try {
+				checksum = UpdaterChecksums.digest(source);
+			}
+			catch (final IOException e) {
+				// let the updater handle it
+				getLog().debug("Could not compute updater checksum of " + source, e);
+				return;
+			}
+			getUpdaterDigestCache().put(source, attributes, checksum);
+		}
+		checksums.put(target, checksum);
+	}
+
+	/**
+	 * Indexes all .jar files of the ImageJ.app/ directory, not only those that
+	 * were just installed, if requested.
+	 *
+	 * @param imagejDirectory the ImageJ.app/ directory
+	 */
+	private void updatePluginIndex(final File imagejDirectory) {
+		final PluginIndex index = getPluginIndex(Paths.get(imagejDirectory
+			.toURI()));
+		if (index == null) return;
+		try {
+			for (final Path unreadable : index.update(metrics)) {
+				getLog().warn("Could not index the plugins in " + unreadable);
+			}
+		}
+		catch (final IOException e) {
+			getLog().warn("Could not update the plugin index of " +
+				imagejDirectory, e);
+		}
+	}
+
+	/**
+	 * Records the plugins of an installed file in the plugin index, if
+	 * requested.
+	 *
+	 * @param directory the ImageJ.app/ (or staging) directory
+	 * @param target the installed file
+	 * @throws IOException if the installed file could not be accessed
+	 */
+	private void indexPlugins(final Path directory, final Path target)
+		throws IOException
+	{
+		final PluginIndex index = getPluginIndex(directory);
+		if (index == null) return;
+		try {
+			index.put(target, FileStampCache.attributes(target), metrics);
+		}
+		catch (final ZipException e) {
+			getLog().warn("Could not index the plugins in " + target, e);
+		}
+	}
+
+	/**
+	 * Puts a file into the ImageJ.app/ directory according to the
+	 * {@link InstallMode}, falling back to copying it.
+	 * <p>
+	 * The file is first copied or linked to a temporary file next to the
+	 * target, which is then atomically renamed to the target. That way, an
+	 * ImageJ that is started in the meantime never sees a half-written .jar
+	 * file, and an existing target is never written to: it might be a link into
+	 * the local repository.
+	 * </p>
+	 * 
+	 * @param source the file to install
+	 * @param target the location in the ImageJ.app/ directory
+	 * @param checksums the checksums to verify the file against, or
+	 *          {@code null}
+	 * @throws IOException if the file could not be installed, or does not match
+	 *           the checksums and the {@link ChecksumPolicy} is {@code fail}
+	 */
+	private void installFile(final Path source, final Path target,
+		final Checksums checksums) throws IOException
+	{
+		Files.createDirectories(target.getParent());
+		final Path temporary = target.resolveSibling("." + target.getFileName() +
+			"-" + Long.toHexString(System.nanoTime()) + ".tmp");
+		try {
+			if (linkFile(source, temporary)) {
+				metrics.increment(Counter.filesLinked);
+				// verify what the link resolves to, not the artifact's file
+				if (checksums != null) checksums.compute(temporary);
+			}
+			else {
+				metrics.add(Counter.bytesCopied, copyFile(source, temporary,
+					checksums));
+				metrics.increment(Counter.filesCopied);
+			}
+			if (checksums != null) verify(checksums);
+			try {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Handles a checksum mismatch according to the {@link ChecksumPolicy}.
+	 */
+	private void verify(final Checksums checksums) throws IOException {
+		metrics.increment(Counter.checksumsVerified);
+		final String mismatch = checksums.verify();
+		if (mismatch == null) return;
+		metrics.increment(Counter.checksumMismatches);
+		if (checksumPolicy == ChecksumPolicy.fail) throw new IOException(mismatch);
+		getLog().warn(mismatch);
+	}
+
+	/**
+	 * Links or clones a file according to the {@link InstallMode}.
+	 * 
+	 * @param source the file to link to
+	 * @param target the link to make
+	 * @return whether the link was made; if not, the file needs to be copied
+	 */
+	private boolean linkFile(final Path source, final Path target) {
+		final InstallMode mode = getInstallMode();
+		try {
+			switch (mode) {
+				case hardlink:
+					Files.createLink(target, source);
+					return true;
+				case symlink:
+					Files.createSymbolicLink(target, source.toAbsolutePath());
+					return true;
+				case reflink:
+					return reflink(source, target);
+				default:
+					return false;
+			}
+		}
+		catch (final IOException | UnsupportedOperationException e) {
+			getLog().debug("Could not " + mode + " " + source + "; copying", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Copies a file, letting the operating system transfer the bytes directly
+	 * where possible. Like {@code FileUtils#copyFile}, this preserves the
+	 * modification time.
+	 * <p>
+	 * If the file needs to be verified, the bytes pass through a buffer instead,
+	 * and the checksums are computed on the way.
+	 * </p>
+	 * 
+	 * @param source the file to copy
+	 * @param target the (new) file to copy to
+	 * @param checksums the checksums to compute, or {@code null}
+	 * @return the number of bytes copied
+	 * @throws IOException if the file could not be copied
+	 */
+	private static long copyFile(final Path source, final Path target,
+		final Checksums checksums) throws IOException
+	{
+		long size;
+		try (final FileChannel in = FileChannel.open(source,
+			StandardOpenOption.READ);
+				final FileChannel out = FileChannel.open(target,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE))
+		{
+			if (checksums == null) {
+				size = in.size();
+				for (long position = 0; position < size;) {
+					position += in.transferTo(position, size - position, out);
+				}
+			}
+			else {
+				size = 0;
+				final ByteBuffer buffer = ByteBuffer.allocate(65536);
+				while (in.read(buffer) >= 0) {
+					buffer.flip();
+					checksums.update(buffer.array(), 0, buffer.limit());
+					size += buffer.limit();
+					while (buffer.hasRemaining()) out.write(buffer);
+					buffer.clear();
+				}
+			}
+		}
+		Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+		return size;
+	}
+
+	/**
+	 * Makes a copy-on-write clone of a file, using the platform's {@code cp}.
+	 * 
+	 * @param source the file to clone
+	 * @param target the clone to make
+	 * @return whether the clone was made
+	 * @throws IOException if the {@code cp} command could not be run
+	 */
+	private static boolean reflink(final Path source, final Path target)
+		throws IOException
+	{
+		final String os = System.getProperty("os.name").toLowerCase();
+		final List<String> command = new ArrayList<>();
+		command.add("cp");
+		if (os.startsWith("linux")) {
+			command.add("--reflink=always");
+			command.add("--preserve=timestamps");
+		}
+		else if (os.startsWith("mac")) {
+			command.add("-c");
+			command.add("-p");
+		}
+		else return false;
+		command.add(source.toAbsolutePath().toString());
+		command.add(target.toAbsolutePath().toString());
+
+		final Process process = new ProcessBuilder(command).redirectErrorStream(
+			true).start();
+		try (final InputStream in = process.getInputStream()) {
+			while (in.read() >= 0) {
+				// discard cp's error messages
+			}
+			if (process.waitFor() == 0) return true;
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			process.destroy();
+		}
+		Files.deleteIfExists(target);
+		return false;
+	}
+
+	/**
+	 * Checks whether an artifact was installed by a previous run, and neither
+	 * the artifact nor the installed file changed since.
+	 * <p>
+	 * This is the case if the ledger records the same version of the artifact
+	 * at the expected location, installed the way files are installed now, the
+	 * installed file still has the recorded size and modification time, and the
+	 * artifact still has the recorded digest.
+	 * </p>
+	 * 
+	 * @param artifact the artifact to install
+	 * @param ledger the ledger of the ImageJ.app/ directory
+	 * @param imagejDirectory the ImageJ.app/ directory
+	 * @param subdirectory the requested subdirectory, if any
+	 * @return the installed file if nothing needs to be done for the artifact,
+	 *         {@code null} otherwise
+	 * @throws IOException if the files could not be read
+	 */
+	private Path getUnchanged(final Artifact artifact,
+		final InstallLedger ledger, final File imagejDirectory,
+		final String subdirectory) throws IOException
+	{
+		final String fileName = getTargetFileName(artifact);
+		for (final InstallLedger.Entry entry : ledger.getVersions(artifact)) {
+			if (!artifact.getVersion().equals(entry.getVersion())) continue;
+			final String path = entry.getPath();
+			if (!path.endsWith("/" + fileName)) continue;
+			final String parent = path.substring(0, path.length() - fileName
+				.length() - 1);
+			if (subdirectory != null && !subdirectory.equals("")) {
+				final Path expected = Paths.get(new File(new File(imagejDirectory,
+					subdirectory), fileName).toURI()).normalize();
+				if (!expected.equals(ledger.resolve(entry))) continue;
+			}
+			else if (!parent.equals("jars") && !parent.equals("plugins") &&
+				!parent.equals("jars/bio-formats"))
+			{
+				continue;
+			}
+
+			final BasicFileAttributes attributes;
+			try {
+				attributes = FileStampCache.attributes(ledger.resolve(entry));
+			}
+			catch (final NoSuchFileException e) {
+				return null;
+			}
+			return attributes.size() == entry.getSize() &&
+				attributes.lastModifiedTime().toMillis() == entry.getLastModified() &&
+				getInstallation().equals(entry.getMode()) && entry.getDigest().equals(
+					getSourceDigest(artifact)) ? ledger.resolve(entry) : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Obtains the SHA-1 digest of an artifact's file.
+	 * 
+	 * @param artifact the artifact
+	 * @return the digest as hex string
+	 * @throws IOException if the file could not be read
+	 */
+	private String getSourceDigest(final Artifact artifact) throws IOException {
+		final Path source = artifact.getFile().toPath();
+		return getDigestCache().digest(source, FileStampCache.attributes(source),
+			!artifact.isSnapshot());
+	}
+
+	/**
+	 * Checks whether the target file has the same contents as the artifact,
+	 * comparing the sizes and the SHA-1 digests.
+	 * <p>
+	 * The digests are cached by path, size and modification time, so checking
+	 * unchanged files does not read them at all. For release artifacts, the
+	 * digest is taken from the {@code .sha1} file in the local repository when
+	 * available.
+	 * </p>
+	 * 
+	 * @param artifact the artifact to install
+	 * @param target the file it would be installed as
+	 * @return whether the target is up to date
+	 * @throws IOException if the files could not be read
+	 */
+	private boolean isUpToDate(final Artifact artifact, final Path target)
+		throws IOException
+	{
+		final BasicFileAttributes targetAttributes;
+		try {
+			targetAttributes = FileStampCache.attributes(target);
+		}
+		catch (final NoSuchFileException e) {
+			return false;
+		}
+		final Path source = artifact.getFile().toPath();
+		final BasicFileAttributes sourceAttributes = FileStampCache.attributes(source);
+		if (sourceAttributes.size() != targetAttributes.size()) return false;
+
+		final DigestCache cache = getDigestCache();
+		return cache.digest(source, sourceAttributes, !artifact.isSnapshot())
+			.equals(cache.digest(target, targetAttributes, false));
+	}
+
+	private synchronized FileStampCache getPluginCache() {
+		if (pluginCache == null) {
+			final File directory = getCacheDirectory();
+			pluginCache = new FileStampCache(directory == null ? null : new File(
+				directory, "plugins.properties"),
+				"Whether .jar files are ImageJ 1.x plugins");
+		}
+		return pluginCache;
+	}
+
+	private synchronized FileStampCache getUpdaterDigestCache() {
+		if (updaterDigestCache == null) {
+			final File directory = getCacheDirectory();
+			updaterDigestCache = new FileStampCache(directory == null ? null
+				: new File(directory, "updater-checksums.properties"),
+				"Checksums of .jar files as computed by the ImageJ updater");
+		}
+		return updaterDigestCache;
+	}
+
+	private synchronized DigestCache getDigestCache() {
+		if (digestCache == null) {
+			final File directory = getCacheDirectory();
+			digestCache = new DigestCache(directory == null ? null : new File(
+				directory, "digests.properties"));
+		}
+		return digestCache;
+	}
+
+	/**
+	 * Determines the name of the file an artifact is installed as.
+	 * 
+	 * @param artifact the artifact
+	 * @return the file name in the ImageJ.app/ directory
+	 */
+	static String getTargetFileName(final Artifact artifact) {
+		if ("Fiji_Updater".equals(artifact.getArtifactId())) {
+			return artifact.getArtifactId() + ".jar";
+		}
+		if (artifact.getFile() != null) return artifact.getFile().getName();
+
+		// not fetched yet; use the name it will have in the local repository
+		final String classifier = artifact.getClassifier();
+		return artifact.getArtifactId() + "-" + artifact.getBaseVersion() +
+			(classifier == null || classifier.isEmpty() ? "" : "-" + classifier) +
+			"." + artifact.getArtifactHandler().getExtension();
+	}
+
+	/**
+	 * Determines whether a file is an ImageJ 1.x plugin, i.e. whether its name
+	 * contains an underscore and it contains a {@code plugins.config}.
+	 * <p>
+	 * The result is cached by path, size and modification time, so that jars
+	 * are opened only once, no matter how many builds install them.
+	 * </p>
+	 * 
+	 * @param file the jar file or classes directory
+	 * @return whether the file is an ImageJ 1.x plugin
+	 */
+	boolean isIJ1Plugin(final File file) {
 		final String name = file.getName();
 		if (name.indexOf('_') < 0 || !file.exists()) return false;
 		if (file.isDirectory()) {
@@ -231,26 +1450,31 @@ public abstract class AbstractCopyJarsMojo extends AbstractMojo {
 		}
 		if (!name.endsWith(".jar")) return false;
 
-		try (final JarFile jar = new JarFile(file)) {
-			for (final JarEntry entry : Collections.list(jar.entries())) {
-				if (entry.getName().equals("plugins.config")) {
-					jar.close();
-					return true;
-				}
-			}
+		final Path path = file.toPath();
+		BasicFileAttributes attributes = null;
+		try {
+			attributes = FileStampCache.attributes(path);
+			final String cached = getPluginCache().get(path, attributes);
+			if (cached != null) return Boolean.parseBoolean(cached);
+		}
+		catch (final IOException e) {
+			// look inside the jar
+		}
+
+		boolean result = false;
+		metrics.increment(Counter.jarsOpened);
+		try (final ZipFile jar = new ZipFile(file)) {
+			result = jar.getEntry("plugins.config") != null;
 		}
 		catch (final Throwable t) {
 			// obviously not a plugin...
 		}
-		return false;
+		if (attributes != null) {
+			getPluginCache().put(path, attributes, Boolean.toString(result));
+		}
+		return result;
 	}
 
-	private final static Pattern versionPattern = Pattern.compile("(.+?)"
-		+ "(-\\d+(\\.\\d+|\\d{7})+[a-z]?\\d?(-[A-Za-z0-9.]+?|\\.GA)*?)?"
-		+ "((-(swing|swt|sources|javadoc|native|linux-x86|linux-x86_64|macosx-x86_64|windows-x86|windows-x86_64|android-arm|android-x86|natives-windows|natives-macos|natives-linux))?(\\.jar(-[a-z]*)?))");
-	private final static int PREFIX_INDEX = 1;
-	private final static int VERSION_INDEX = 2;
-	private final static int SUFFIX_INDEX = 5;
 
 	/**
 	 * Extracts the major version (according to SemVer) from a version string.
@@ -269,6 +1493,11 @@ public abstract class AbstractCopyJarsMojo extends AbstractMojo {
 	/**
 	 * Looks for files in {@code directory} with the same base name as
 	 * {@code file}.
+	 * <p>
+	 * The directory is walked only once while builds are installing into it;
+	 * subsequent lookups are answered from an {@link ImageJDirectoryIndex}
+	 * shared by those builds (see {@link InstallCoordinator}).
+	 * </p>
 	 *
 	 * @param directory The directory to walk to find possible duplicates.
 	 * @param file A {@link Path} to the target (from which the base name is
@@ -276,31 +1505,99 @@ public abstract class AbstractCopyJarsMojo extends AbstractMojo {
 	 * @return A collection of {@link Path}s to files of the same base name.
 	 */
 	private Collection<Path> getEncroachingVersions(final Path directory, final Path file) {
-		final Matcher matcher = versionPattern.matcher(file.getFileName().toString());
-		if (!matcher.matches()) return null;
-
-		final String prefix = matcher.group(PREFIX_INDEX);
-		final String suffix = matcher.group(SUFFIX_INDEX);
-
-		Collection<Path> result = new ArrayList<>();
 		try {
-			result = Files.walk(directory)
-			.filter(path -> path.getFileName().toString().startsWith(prefix))
-			.filter(path -> {
-				final Matcher matcherIterator = versionPattern.matcher(path.getFileName().toString());
-				return matcherIterator.matches() &&
-					prefix.equals(matcherIterator.group(PREFIX_INDEX)) &&
-					suffix.equals(matcherIterator.group(SUFFIX_INDEX));
-			})
-			.filter(path -> !path.getFileName().toString().equals(file.getFileName().toString()))
-			.collect(Collectors.toCollection(ArrayList::new));
-			return result;
+			return getDirectoryIndex(directory).getEncroachingVersions(file);
 		} catch (IOException e) {
 			getLog().error(e);
-		} finally {
-			result = new ArrayList<>();
 		}
+		return new ArrayList<>();
+	}
 
-		return result;
+	private synchronized InstallLedger getLedger(final Path directory) {
+		return ledgers.computeIfAbsent(directory.normalize(), InstallLedger::new);
+	}
+
+	/**
+	 * @return the plugin index of the given directory, or {@code null} if it
+	 *         should not be maintained
+	 */
+	private synchronized PluginIndex getPluginIndex(final Path directory) {
+		if (!pluginIndex) return null;
+		return pluginIndices.computeIfAbsent(directory.normalize(),
+			PluginIndex::new);
+	}
+
+	/**
+	 * @return the content store, or {@code null} if the files should be put
+	 *         into ImageJ.app/ directly
+	 */
+	private synchronized ContentStore getContentStore() {
+		if (storeDirectory == null) return null;
+		if (contentStore == null) {
+			contentStore = new ContentStore(storeDirectory.toPath());
+			if (installMode == InstallMode.copy) {
+				getLog().info("Hard-linking files from the content store " +
+					storeDirectory + " instead of copying them");
+			}
+		}
+		return contentStore;
+	}
+
+	/**
+	 * @return how to put files into ImageJ.app/; files from the content store
+	 *         are never copied on purpose, see {@link #getContentStore()}
+	 */
+	private InstallMode getInstallMode() {
+		return installMode == InstallMode.copy && storeDirectory != null
+			? InstallMode.hardlink : installMode;
+	}
+
+	/**
+	 * Describes how files are put into ImageJ.app/, as recorded in the ledger.
+	 * A file that was put there differently, e.g. copied before switching to
+	 * {@code symlink}, or linked before using a content store, is installed
+	 * again even if its contents are up to date.
+	 *
+	 * @return the {@link InstallMode}, marked if files come from the store
+	 */
+	private String getInstallation() {
+		return storeDirectory == null ? getInstallMode().name()
+			: getInstallMode() + "+store";
+	}
+
+	/**
+	 * @return how a file was put into ImageJ.app/ according to the ledger;
+	 *         files that were not installed by us count as copies
+	 */
+	private static String getMode(final InstallLedger ledger,
+		final Path target)
+	{
+		final InstallLedger.Entry entry = ledger.get(target);
+		return entry == null ? InstallMode.copy.name() : entry.getMode();
+	}
+
+	/**
+	 * @return the updater's checksum cache of the given directory, or
+	 *         {@code null} if it should not be written
+	 */
+	private synchronized UpdaterChecksums getUpdaterChecksums(
+		final Path directory)
+	{
+		if (!updaterChecksums) return null;
+		return updaterCaches.computeIfAbsent(directory.normalize(),
+			UpdaterChecksums::new);
+	}
+
+	private synchronized boolean isStaging(final Path directory) {
+		return stagingIndices.containsKey(directory.normalize());
+	}
+
+	private synchronized ImageJDirectoryIndex getDirectoryIndex(
+		final Path directory) throws IOException
+	{
+		final ImageJDirectoryIndex staging = stagingIndices.get(directory
+			.normalize());
+		if (staging != null) return staging;
+		return InstallCoordinator.get(directory).getIndex(metrics);
 	}
 }
@@ -0,0 +1,294 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A class-data-sharing (AppCDS) archive of the classes ImageJ loads on
+ * startup, for the current classpath of an ImageJ.app/ directory.
+ * <p>
+ * The archive, the class list it was generated from and the classpath it is
+ * valid for live in {@code .imagej-maven-plugin/cds/}, along with
+ * {@code java.args}, a Java argument file with the options to use the archive
+ * and the classpath. The archive only applies to a JVM started with exactly
+ * that classpath, e.g. {@code java @.imagej-maven-plugin/cds/java.args
+ * net.imagej.Main}. Optionally, the options are also recorded in the
+ * {@code jvmargs} of a launcher configuration. As soon as any .jar file is
+ * installed or deleted, the archive is invalidated: it is deleted, and the
+ * options are removed from the launcher configuration again.
+ * </p>
+ */
+class CdsArchive {
+
+	private static final String ARCHIVE_OPTION = "-XX:SharedArchiveFile=";
+
+	private static final String SHARE_OPTION = "-Xshare:";
+
+	private final Path directory;
+
+	private final Path state;
+
+	public CdsArchive(final Path directory) {
+		this.directory = directory.normalize();
+		state = this.directory.resolve(AbstractCopyJarsMojo.STATE_DIRECTORY)
+			.resolve("cds");
+	}
+
+	public Path getArchive() {
+		return state.resolve("imagej.jsa");
+	}
+
+	public Path getClassList() {
+		return state.resolve("classes.lst");
+	}
+
+	/**
+	 * @return the Java argument file with the options to start a JVM using the
+	 *         archive, without the main class
+	 */
+	public Path getArgumentFile() {
+		return state.resolve("java.args");
+	}
+
+	/**
+	 * @return the file listing the classpath the archive is valid for, one
+	 *         element per line
+	 */
+	public Path getClasspathFile() {
+		return state.resolve("classpath.txt");
+	}
+
+	/**
+	 * Lists the .jar files in {@code jars/} and {@code plugins/}, in a stable
+	 * order.
+	 *
+	 * @return the absolute paths of the .jar files
+	 * @throws IOException if the directories could not be listed
+	 */
+	public List<Path> getClasspath() throws IOException {
+		final List<Path> result = new ArrayList<>();
+		for (final String name : new String[] { "jars", "plugins" }) {
+			final Path subdirectory = directory.resolve(name);
+			if (!Files.isDirectory(subdirectory)) continue;
+			try (final Stream<Path> files = Files.walk(subdirectory)) {
+				result.addAll(files.filter(path -> path.getFileName().toString()
+					.endsWith(".jar") && Files.isRegularFile(path)).map(
+						Path::toAbsolutePath).sorted().collect(Collectors.toList()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Digests the paths, sizes and modification times of the classpath
+	 * elements; the archive is only valid as long as none of them change.
+	 */
+	public static String fingerprint(final List<Path> classpath)
+		throws IOException
+	{
+		final MessageDigest digest = DigestCache.sha1();
+		for (final Path path : classpath) {
+			digest.update((path + "\t" + Files.size(path) + "\t" + Files
+				.getLastModifiedTime(path).toMillis() + "\n").getBytes(
+					StandardCharsets.UTF_8));
+		}
+		return DigestCache.toHex(digest.digest());
+	}
+
+	/**
+	 * Determines whether the archive was generated for the given classpath, by
+	 * the given Java.
+	 */
+	public boolean isUpToDate(final String fingerprint, final Path java) {
+		final Properties properties = readProperties();
+		return Files.exists(getArchive()) && fingerprint.equals(properties
+			.getProperty("fingerprint")) && java.toString().equals(properties
+				.getProperty("java"));
+	}
+
+	/**
+	 * Records a freshly generated archive, and the options to use it.
+	 *
+	 * @param classpath the classpath the archive was generated for
+	 * @param fingerprint the fingerprint of the classpath
+	 * @param java the {@code java} executable that generated the archive; the
+	 *          archive is only valid for the same Java
+	 * @param launcherConfig the launcher configuration to record the options
+	 *          in, or {@code null}
+	 * @throws IOException if the files could not be written
+	 */
+	public void record(final List<Path> classpath, final String fingerprint,
+		final Path java, final Path launcherConfig) throws IOException
+	{
+		Files.createDirectories(state);
+		write(getClasspathFile(), classpath.stream().map(Path::toString).collect(
+			Collectors.toList()));
+		final List<String> arguments = new ArrayList<>();
+		arguments.add(quote(ARCHIVE_OPTION + getArchive()));
+		arguments.add(SHARE_OPTION + "auto");
+		arguments.add("-cp");
+		arguments.add(quote(classpath.stream().map(Path::toString).collect(
+			Collectors.joining(File.pathSeparator))));
+		write(getArgumentFile(), arguments);
+		final Properties properties = new Properties();
+		properties.setProperty("fingerprint", fingerprint);
+		properties.setProperty("java", java.toString());
+		if (launcherConfig != null) {
+			properties.setProperty("launcherConfig", launcherConfig.toAbsolutePath()
+				.toString());
+		}
+		final Path temporary = Files.createTempFile(state, "cds", ".tmp");
+		try (final OutputStream out = Files.newOutputStream(temporary)) {
+			properties.store(out, "The classpath the CDS archive was generated for");
+		}
+		Files.move(temporary, state.resolve("cds.properties"),
+			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		if (launcherConfig != null) {
+			updateLauncherConfig(launcherConfig, ARCHIVE_OPTION + getArchive() +
+				" " + SHARE_OPTION + "auto");
+		}
+	}
+
+	/**
+	 * Deletes the archive, if any, and removes the options to use it from the
+	 * launcher configuration.
+	 *
+	 * @return whether there was an archive to invalidate
+	 * @throws IOException if the files could not be deleted or written
+	 */
+	public boolean invalidate() throws IOException {
+		final String launcherConfig = readProperties().getProperty(
+			"launcherConfig");
+		boolean result = Files.deleteIfExists(getArchive());
+		result |= Files.deleteIfExists(state.resolve("cds.properties"));
+		Files.deleteIfExists(getClasspathFile());
+		Files.deleteIfExists(getArgumentFile());
+		if (launcherConfig != null) {
+			updateLauncherConfig(directory.resolve(launcherConfig), null);
+		}
+		return result;
+	}
+
+	/**
+	 * Quotes an argument for a Java argument file, where backslashes escape the
+	 * next character.
+	 */
+	private static String quote(final String argument) {
+		return "\"" + argument.replace("\\", "\\\\").replace("\"", "\\\"") +
+			"\"";
+	}
+
+	private Properties readProperties() {
+		final Properties properties = new Properties();
+		try (final InputStream in = Files.newInputStream(state.resolve(
+			"cds.properties")))
+		{
+			properties.load(in);
+		}
+		catch (final IOException e) {
+			// no archive yet
+		}
+		return properties;
+	}
+
+	/**
+	 * Replaces the CDS options in the {@code jvmargs} of a launcher
+	 * configuration, keeping all other options and lines.
+	 *
+	 * @param config the launcher configuration
+	 * @param options the new CDS options, or {@code null} to remove them
+	 */
+	static void updateLauncherConfig(final Path config, final String options)
+		throws IOException
+	{
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(config, StandardCharsets.UTF_8);
+		}
+		catch (final NoSuchFileException e) {
+			if (options == null) return;
+			lines = Collections.emptyList();
+		}
+		final List<String> result = new ArrayList<>();
+		boolean found = false;
+		for (final String line : lines) {
+			final int equals = line.indexOf('=');
+			if (equals < 0 || !line.substring(0, equals).trim().equals("jvmargs")) {
+				result.add(line);
+				continue;
+			}
+			found = true;
+			final StringBuilder builder = new StringBuilder();
+			for (final String option : line.substring(equals + 1).trim().split(
+				"\\s+"))
+			{
+				if (option.isEmpty() || option.startsWith(ARCHIVE_OPTION) || option
+					.startsWith(SHARE_OPTION)) continue;
+				builder.append(builder.length() == 0 ? "" : " ").append(option);
+			}
+			if (options != null) {
+				builder.append(builder.length() == 0 ? "" : " ").append(options);
+			}
+			if (builder.length() > 0) result.add("jvmargs = " + builder);
+		}
+		if (!found && options != null) result.add("jvmargs = " + options);
+		if (result.equals(lines)) return;
+		write(config, result);
+	}
+
+	private static void write(final Path file, final List<String> lines)
+		throws IOException
+	{
+		Files.createDirectories(file.getParent());
+		final Path temporary = Files.createTempFile(file.getParent(), "." + file
+			.getFileName(), ".tmp");
+		Files.write(temporary, lines, StandardCharsets.UTF_8);
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+}
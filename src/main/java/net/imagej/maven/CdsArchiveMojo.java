@@ -0,0 +1,289 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Generates a class-data-sharing (AppCDS) archive for the classpath of an
+ * ImageJ.app/ directory, to speed up the startup of the JVM.
+ * <p>
+ * The classpath consists of all .jar files in {@code jars/} and
+ * {@code plugins/}. The classes to archive are determined by a trial run of
+ * ImageJ, using the Java bundled in {@code ImageJ.app/java/<platform>/} if
+ * there is one. Installing or deleting any .jar file invalidates the archive.
+ * Requires Java 11 or later.
+ * </p>
+ * <p>
+ * The JVM only uses the archive if it is started with the same classpath,
+ * i.e. as a plain {@code java -cp} launch. The ImageJ launcher assembles the
+ * classpath differently, so the archive does not apply to it. Instead, the
+ * options and the classpath are written to the Java argument file
+ * {@code .imagej-maven-plugin/cds/java.args}, to start ImageJ via
+ * {@code java @.imagej-maven-plugin/cds/java.args net.imagej.Main} or from a
+ * custom launcher script.
+ * </p>
+ */
+@Mojo(name = "cds-archive", requiresProject = false)
+public class CdsArchiveMojo extends AbstractMojo {
+
+	/**
+	 * Path to the ImageJ.app/ directory.
+	 */
+	@Parameter(property = AbstractCopyJarsMojo.imagejDirectoryProperty,
+		required = true)
+	private File imagejDirectory;
+
+	/**
+	 * The Java installation to run ImageJ with. Defaults to the Java bundled in
+	 * {@code ImageJ.app/java/<platform>/}, if any, and to the Java running
+	 * Maven otherwise.
+	 */
+	@Parameter(property = "imagej.cds.javaHome")
+	private File javaHome;
+
+	/**
+	 * The main class of the trial run.
+	 */
+	@Parameter(property = "imagej.cds.mainClass", defaultValue = "net.imagej.Main")
+	private String mainClass;
+
+	/**
+	 * The arguments of the trial run; it should start up ImageJ headlessly and
+	 * exit.
+	 */
+	@Parameter(property = "imagej.cds.arguments")
+	private List<String> arguments;
+
+	/**
+	 * The number of seconds after which the trial run is stopped. The classes
+	 * loaded until then are archived.
+	 */
+	@Parameter(property = "imagej.cds.timeout", defaultValue = "120")
+	private int timeout;
+
+	/**
+	 * A launcher configuration to also record the JVM options in, as
+	 * {@code jvmargs}. Only useful for launchers that start Java with the
+	 * classpath listed in {@code .imagej-maven-plugin/cds/classpath.txt}, in
+	 * that order; the ImageJ launcher does not.
+	 */
+	@Parameter(property = "imagej.cds.launcherConfig")
+	private File launcherConfig;
+
+	/**
+	 * Whether to generate the archive even if it is up to date.
+	 */
+	@Parameter(property = "imagej.cds.force", defaultValue = "false")
+	private boolean force;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		if (!imagejDirectory.isDirectory()) {
+			throw new MojoFailureException("Not a directory: " + imagejDirectory);
+		}
+		final Path directory = imagejDirectory.toPath().toAbsolutePath()
+			.normalize();
+		final CdsArchive archive = new CdsArchive(directory);
+
+		// keep the classpath stable while generating the archive
+		try {
+			final Closeable lock = InstallCoordinator.get(directory)
+				.lockExclusive();
+			try {
+				final List<Path> classpath = archive.getClasspath();
+				if (classpath.isEmpty()) {
+					throw new MojoFailureException("No .jar files in " +
+						directory);
+				}
+				final String fingerprint = CdsArchive.fingerprint(classpath);
+				final Path java = findJava(directory);
+				if (!force && archive.isUpToDate(fingerprint, java)) {
+					getLog().info("CDS archive " + archive.getArchive() +
+						" is up to date; skipping");
+					return;
+				}
+				archive.invalidate();
+				Files.createDirectories(archive.getClassList().getParent());
+				final String joined = classpath.stream().map(Path::toString)
+					.collect(Collectors.joining(File.pathSeparator));
+
+				getLog().info("Determining the classes loaded by " + mainClass +
+					" using " + java);
+				final List<String> trial = java(java, "-Xshare:off",
+					"-XX:DumpLoadedClassList=" + archive.getClassList(), "-cp",
+					joined, mainClass);
+				if (arguments != null) trial.addAll(arguments);
+				run(trial, false);
+
+				getLog().info("Writing CDS archive " + archive.getArchive());
+				run(java(java, "-Xshare:dump", "-XX:SharedClassListFile=" +
+					archive.getClassList(), "-XX:SharedArchiveFile=" + archive
+						.getArchive(), "-cp", joined), true);
+
+				archive.record(classpath, fingerprint, java,
+					launcherConfig == null ? null : launcherConfig.toPath());
+				getLog().info("Recorded CDS options in " + archive
+					.getArgumentFile() + (launcherConfig == null ? "" : " and " +
+						launcherConfig));
+			}
+			finally {
+				lock.close();
+			}
+		}
+		catch (final IOException e) {
+			throw new MojoExecutionException("Could not generate CDS archive for " +
+				directory + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Determines the {@code java} executable to run: the one in
+	 * {@link #javaHome}, if set, or else the first one bundled for this
+	 * platform in {@code ImageJ.app/java/}, e.g. in
+	 * {@code java/linux64/jdk-11/bin/}, or else the one running Maven.
+	 */
+	private Path findJava(final Path directory) throws IOException {
+		final String executable = System.getProperty("os.name").toLowerCase()
+			.startsWith("win") ? "java.exe" : "java";
+		if (javaHome != null) {
+			return javaHome.toPath().resolve("bin").resolve(executable)
+				.toAbsolutePath();
+		}
+		for (final String platform : getPlatforms()) {
+			final Path bundled = directory.resolve("java").resolve(platform);
+			if (!Files.isDirectory(bundled)) continue;
+			try (final Stream<Path> files = Files.find(bundled, 6, (path,
+				attributes) -> path.getFileName().toString().equals(executable) &&
+					path.getParent().getFileName().toString().equals("bin") &&
+					!attributes.isDirectory()))
+			{
+				final Optional<Path> first = files.sorted().findFirst();
+				if (first.isPresent()) return first.get();
+			}
+		}
+		return Paths.get(System.getProperty("java.home"), "bin", executable);
+	}
+
+	/**
+	 * @return the names the ImageJ launcher uses for this platform's
+	 *         subdirectory of {@code ImageJ.app/java/}
+	 */
+	private static List<String> getPlatforms() {
+		final String os = System.getProperty("os.name").toLowerCase();
+		final String arch = System.getProperty("os.arch");
+		final boolean is64 = arch.contains("64");
+		if (os.startsWith("win")) return Arrays.asList(is64 ? "win64" : "win32");
+		if (os.startsWith("mac")) {
+			return arch.equals("aarch64") ? Arrays.asList("macos-arm64", "macosx")
+				: Arrays.asList("macosx");
+		}
+		return is64 ? Arrays.asList("linux64", "linux-amd64") : Arrays.asList(
+			"linux32", "linux");
+	}
+
+	private static List<String> java(final Path java, final String... options) {
+		final List<String> command = new ArrayList<>();
+		command.add(java.toString());
+		for (final String option : options) {
+			command.add(option);
+		}
+		return command;
+	}
+
+	/**
+	 * Runs a command in the ImageJ.app/ directory, logging its output.
+	 *
+	 * @param command the command line
+	 * @param mustSucceed whether a non-zero exit status is an error; otherwise,
+	 *          the command is also stopped after the timeout
+	 */
+	private void run(final List<String> command, final boolean mustSucceed)
+		throws IOException, MojoExecutionException
+	{
+		getLog().debug("Running " + command);
+		final File output = File.createTempFile("cds", ".log");
+		try {
+			final Process process = new ProcessBuilder(command).directory(
+				imagejDirectory).redirectErrorStream(true).redirectOutput(output)
+				.start();
+			final boolean exited;
+			try {
+				exited = process.waitFor(timeout, TimeUnit.SECONDS);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				process.destroyForcibly();
+				throw new MojoExecutionException("Interrupted while running " +
+					command.get(0));
+			}
+			final String log = new String(Files.readAllBytes(output.toPath()));
+			getLog().debug(log);
+			if (!exited) {
+				process.destroyForcibly();
+				if (mustSucceed) {
+					throw new MojoExecutionException("Timed out running " + command);
+				}
+				getLog().warn("Stopped the trial run after " + timeout + " seconds");
+			}
+			else if (process.exitValue() != 0) {
+				if (mustSucceed) {
+					throw new MojoExecutionException("Failed to run " + command +
+						":\n" + log);
+				}
+				getLog().warn("The trial run exited with status " + process
+					.exitValue());
+			}
+		}
+		finally {
+			output.delete();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The checksums a file is expected to have, as published next to it by the
+ * repository ({@code .sha1} and {@code .sha256} files).
+ * <p>
+ * The actual checksums are computed from the bytes passed to
+ * {@link #update(byte[], int, int)}, typically while the file is being copied,
+ * so that verifying it does not require reading it again.
+ * </p>
+ */
+class Checksums {
+
+	private static final String[][] ALGORITHMS = { { "SHA-1", ".sha1" }, {
+		"SHA-256", ".sha256" } };
+
+	private final Path file;
+
+	/** The expected checksums, keyed by algorithm. */
+	private final Map<String, String> expected = new LinkedHashMap<>();
+
+	private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+
+	private final MessageDigest sha1 = DigestCache.sha1();
+
+	private String actualSHA1;
+
+	private Checksums(final Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads the checksums published for a file.
+	 *
+	 * @param file the file
+	 * @return the checksums, or {@code null} if no usable checksum file exists
+	 */
+	public static Checksums read(final Path file) {
+		final Checksums result = new Checksums(file);
+		for (final String[] algorithm : ALGORITHMS) {
+			final String checksum = readSidecar(file, algorithm[1]);
+			if (checksum == null) continue;
+			result.expected.put(algorithm[0], checksum);
+			try {
+				result.digests.put(algorithm[0], "SHA-1".equals(algorithm[0])
+					? result.sha1 : MessageDigest.getInstance(algorithm[0]));
+			}
+			catch (final NoSuchAlgorithmException e) {
+				result.expected.remove(algorithm[0]);
+			}
+		}
+		return result.expected.isEmpty() ? null : result;
+	}
+
+	/**
+	 * Feeds the next bytes of the file into the checksums.
+	 */
+	public void update(final byte[] buffer, final int offset, final int length) {
+		sha1.update(buffer, offset, length);
+		for (final MessageDigest digest : digests.values()) {
+			if (digest != sha1) digest.update(buffer, offset, length);
+		}
+	}
+
+	/**
+	 * Computes the checksums by reading an installed copy of the file, e.g.
+	 * because it was linked rather than copied. That way, what is verified is
+	 * what ImageJ will read, even if the link points somewhere else than the
+	 * file, e.g. into a content store.
+	 *
+	 * @param installed the installed file
+	 * @throws IOException if the installed file could not be read
+	 */
+	public void compute(final Path installed) throws IOException {
+		final byte[] buffer = new byte[65536];
+		try (final InputStream in = Files.newInputStream(installed)) {
+			for (;;) {
+				final int count = in.read(buffer);
+				if (count < 0) break;
+				update(buffer, 0, count);
+			}
+		}
+	}
+
+	/**
+	 * Compares the computed checksums to the expected ones. All bytes of the
+	 * file must have been passed to {@link #update(byte[], int, int)} (or
+	 * {@link #compute(Path)}) before.
+	 *
+	 * @return a description of the mismatch, or {@code null} if the checksums
+	 *         match
+	 */
+	public String verify() {
+		for (final Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+			final String algorithm = entry.getKey();
+			final String actual = entry.getValue() == sha1 ? getSHA1() : DigestCache
+				.toHex(entry.getValue().digest());
+			final String checksum = expected.get(algorithm);
+			if (!checksum.equals(actual)) {
+				return algorithm + " checksum mismatch for " + file.getFileName() +
+					": expected " + checksum + " but was " + actual;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the SHA-1 digest computed from the bytes seen so far, as hex
+	 *         string
+	 */
+	public String getSHA1() {
+		if (actualSHA1 == null) actualSHA1 = DigestCache.toHex(sha1.digest());
+		return actualSHA1;
+	}
+
+	/**
+	 * Reads a checksum from a file next to the given file.
+	 *
+	 * @param path the file
+	 * @param extension the extension of the checksum file, e.g. {@code .sha1}
+	 * @return the checksum as lower-case hex string, or {@code null} if there is
+	 *         no usable checksum file
+	 */
+	static String readSidecar(final Path path, final String extension) {
+		final Path sidecar = path.resolveSibling(path.getFileName() + extension);
+		try {
+			final String contents = new String(Files.readAllBytes(sidecar),
+				StandardCharsets.US_ASCII).trim();
+			final int space = contents.indexOf(' ');
+			final String checksum = (space < 0 ? contents : contents.substring(0,
+				space)).toLowerCase();
+			return checksum.matches("[0-9a-f]{40,128}") ? checksum : null;
+		}
+		catch (final IOException e) {
+			return null;
+		}
+	}
+}
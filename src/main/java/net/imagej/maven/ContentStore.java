@@ -0,0 +1,315 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A content-addressed store of .jar files, shared by several ImageJ.app/
+ * directories.
+ * <p>
+ * Every file (<em>blob</em>) is stored once, as {@code sha1/ab/cdef...} where
+ * {@code abcdef...} is its SHA-1 digest; the ImageJ.app/ directories link to
+ * the blobs instead of holding copies. The store also keeps a list of the
+ * ImageJ.app/ directories installing from it ({@code installations.txt}), so
+ * that the blobs none of them refers to anymore can be
+ * {@link StoreGcMojo garbage-collected}. Installs hold the store's
+ * {@link #lock() shared lock} until their ledger is saved, the garbage
+ * collector holds the exclusive one.
+ * </p>
+ */
+class ContentStore {
+
+	private final Path directory;
+
+	private final Path blobs;
+
+	private final Path installations;
+
+	public ContentStore(final Path directory) {
+		this.directory = directory.toAbsolutePath().normalize();
+		blobs = this.directory.resolve("sha1");
+		installations = this.directory.resolve("installations.txt");
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Takes the lock that allows other installs to add blobs, but keeps the
+	 * garbage collector out.
+	 *
+	 * @return the lock, to be closed when done
+	 * @throws IOException if the lock file could not be locked
+	 */
+	public Closeable lock() throws IOException {
+		return InstallCoordinator.get(directory).lockShared();
+	}
+
+	/**
+	 * Takes the lock that keeps all installs out.
+	 *
+	 * @return the lock, to be closed when done
+	 * @throws IOException if the lock file could not be locked
+	 */
+	public Closeable lockExclusive() throws IOException {
+		return InstallCoordinator.get(directory).lockExclusive();
+	}
+
+	/**
+	 * Returns the location of the blob with the given digest.
+	 *
+	 * @param digest the SHA-1 digest as hex string
+	 * @return the blob, which might not exist
+	 */
+	public Path getBlob(final String digest) {
+		return blobs.resolve(digest.substring(0, 2)).resolve(digest.substring(2));
+	}
+
+	/**
+	 * Derives the digest from the location of a blob.
+	 *
+	 * @param blob the blob
+	 * @return the SHA-1 digest, or {@code null} if the path is not a blob of
+	 *         this store
+	 */
+	public String getDigest(final Path blob) {
+		final Path normalized = blob.toAbsolutePath().normalize();
+		if (!normalized.startsWith(blobs) || normalized.getNameCount() != blobs
+			.getNameCount() + 2) return null;
+		final String digest = normalized.getParent().getFileName().toString() +
+			normalized.getFileName();
+		return digest.length() == 40 ? digest : null;
+	}
+
+	/**
+	 * Adds a file to the store, unless a blob with its contents is there
+	 * already.
+	 * <p>
+	 * The file is copied to a temporary file first, computing its digest on the
+	 * way, and then renamed to the blob. That way, a blob is never incomplete,
+	 * and it is always named by its actual contents, even if the expected
+	 * digest is wrong.
+	 * </p>
+	 *
+	 * @param source the file to add
+	 * @param digest the expected SHA-1 digest of the file, or {@code null} if it
+	 *          is not known
+	 * @param metrics the metrics to count the copied bytes in
+	 * @return the blob
+	 * @throws IOException if the file could not be added
+	 */
+	public Path add(final Path source, final String digest,
+		final InstallMetrics metrics) throws IOException
+	{
+		if (digest != null) {
+			final Path blob = getBlob(digest);
+			if (Files.exists(blob)) return blob;
+		}
+		Files.createDirectories(blobs);
+		final Path temporary = Files.createTempFile(blobs, "blob", ".tmp");
+		try {
+			final MessageDigest sha1 = DigestCache.sha1();
+			final byte[] buffer = new byte[65536];
+			long size = 0;
+			try (final InputStream in = Files.newInputStream(source);
+					final OutputStream out = Files.newOutputStream(temporary))
+			{
+				for (;;) {
+					final int count = in.read(buffer);
+					if (count < 0) break;
+					sha1.update(buffer, 0, count);
+					out.write(buffer, 0, count);
+					size += count;
+				}
+			}
+			Files.setLastModifiedTime(temporary, Files.getLastModifiedTime(source));
+			final Path blob = getBlob(DigestCache.toHex(sha1.digest()));
+			if (Files.exists(blob)) return blob;
+			Files.createDirectories(blob.getParent());
+			try {
+				Files.move(temporary, blob, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temporary, blob);
+			}
+			catch (final FileAlreadyExistsException e) {
+				// a concurrent build added the same contents
+			}
+			metrics.add(InstallMetrics.Counter.bytesCopied, size);
+			return blob;
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Lists all blobs in the store.
+	 *
+	 * @return the blobs
+	 * @throws IOException if the store could not be read
+	 */
+	public List<Path> getBlobs() throws IOException {
+		final List<Path> result = new ArrayList<>();
+		if (!Files.isDirectory(blobs)) return result;
+		try (final DirectoryStream<Path> prefixes = Files.newDirectoryStream(
+			blobs, Files::isDirectory))
+		{
+			for (final Path prefix : prefixes) {
+				try (final DirectoryStream<Path> stream = Files.newDirectoryStream(
+					prefix))
+				{
+					for (final Path blob : stream) {
+						if (getDigest(blob) != null) result.add(blob);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Records that an ImageJ.app/ directory refers to blobs in this store.
+	 *
+	 * @param installation the ImageJ.app/ directory
+	 * @throws IOException if the list of installations could not be written
+	 */
+	public void register(final Path installation) throws IOException {
+		final Path path = installation.toAbsolutePath().normalize();
+		final InstallCoordinator.Lock lock = lockInstallations();
+		try {
+			final Set<Path> paths = readInstallations();
+			if (paths.add(path)) writeInstallations(paths);
+		}
+		finally {
+			lock.close();
+		}
+	}
+
+	/**
+	 * Forgets about ImageJ.app/ directories, e.g. because they were deleted.
+	 *
+	 * @param paths the ImageJ.app/ directories
+	 * @throws IOException if the list of installations could not be written
+	 */
+	public void unregister(final Collection<Path> paths) throws IOException {
+		if (paths.isEmpty()) return;
+		final InstallCoordinator.Lock lock = lockInstallations();
+		try {
+			final Set<Path> remaining = readInstallations();
+			if (remaining.removeAll(paths)) writeInstallations(remaining);
+		}
+		finally {
+			lock.close();
+		}
+	}
+
+	/**
+	 * Lists the ImageJ.app/ directories that installed from this store.
+	 *
+	 * @return the ImageJ.app/ directories, in the order they were registered
+	 * @throws IOException if the list of installations could not be read
+	 */
+	public Set<Path> getInstallations() throws IOException {
+		final InstallCoordinator.Lock lock = lockInstallations();
+		try {
+			return readInstallations();
+		}
+		finally {
+			lock.close();
+		}
+	}
+
+	private InstallCoordinator.Lock lockInstallations() throws IOException {
+		return InstallCoordinator.lockFile(directory.resolve(
+			AbstractCopyJarsMojo.STATE_DIRECTORY).resolve("installations.lock"));
+	}
+
+	private Set<Path> readInstallations() throws IOException {
+		final Set<Path> result = new LinkedHashSet<>();
+		try {
+			for (final String line : Files.readAllLines(installations,
+				StandardCharsets.UTF_8))
+			{
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					result.add(directory.getFileSystem().getPath(line));
+				}
+			}
+		}
+		catch (final NoSuchFileException e) {
+			// no installations yet
+		}
+		return result;
+	}
+
+	private void writeInstallations(final Set<Path> paths) throws IOException {
+		Files.createDirectories(directory);
+		final Path temporary = Files.createTempFile(directory, "installations",
+			".tmp");
+		try {
+			try (final BufferedWriter writer = Files.newBufferedWriter(temporary,
+				StandardCharsets.UTF_8))
+			{
+				writer.write("# ImageJ.app/ directories referring to this store\n");
+				for (final Path path : paths) {
+					writer.write(path.toString());
+					writer.write('\n');
+				}
+			}
+			Files.move(temporary, installations, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+}
@@ -33,8 +33,24 @@ package net.imagej.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import net.imagej.maven.InstallMetrics.Counter;
+import net.imagej.maven.InstallMetrics.Phase;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.manager.ArtifactHandlerManager;
+import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.PluginParameterExpressionEvaluator;
@@ -107,6 +123,51 @@ public class CopyJarsMojo extends AbstractCopyJarsMojo {
 	@Parameter(property = deleteOtherVersionsPolicyProperty, defaultValue = "older")
 	private OtherVersions deleteOtherVersionsPolicy;
 
+	/**
+	 * The number of threads to use when installing artifacts.
+	 * <p>
+	 * Artifacts sharing the same base name are always installed by the same
+	 * thread, one after the other, so that other versions are handled exactly
+	 * as when using a single thread.
+	 * </p>
+	 */
+	@Parameter(property = installThreadsProperty, defaultValue = "1")
+	private int installThreads;
+
+	/**
+	 * Whether to resolve the dependencies even if they were resolved before.
+	 * <p>
+	 * The resolved dependencies are remembered in the local repository, and
+	 * reused as long as the project's dependencies, dependency management and
+	 * repositories are unchanged and none of the resolved files was modified.
+	 * Setting this option (or running Maven with {@code -U}) forces a new
+	 * resolution, e.g. to pick up newer SNAPSHOT versions.
+	 * </p>
+	 */
+	@Parameter(property = forceResolveProperty, defaultValue = "false")
+	private boolean forceResolve;
+
+	/**
+	 * Whether to defer the installation until the end of a multi-module build.
+	 * <p>
+	 * If set, every project of the reactor only resolves its dependencies. The
+	 * last project to execute this goal installs the artifacts of all projects
+	 * in a single pass, installing every artifact only once. If different
+	 * projects depend on different versions of the same artifact, the highest
+	 * version is installed. If that last project fails or is skipped, the
+	 * artifacts collected so far are installed when the build ends.
+	 * </p>
+	 */
+	@Parameter(property = installAtEndProperty, defaultValue = "false")
+	private boolean installAtEnd;
+
+	/**
+	 * Where to write the timings and counters of the execution, as JSON.
+	 */
+	@Parameter(property = metricsFileProperty,
+		defaultValue = "${project.build.directory}/imagej-maven-plugin/copy-jars-metrics.json")
+	private File metricsFile;
+
 	/**
 	 * Project
 	 */
@@ -125,6 +186,12 @@ public class CopyJarsMojo extends AbstractCopyJarsMojo {
 	@Component
 	private DependencyResolver dependencyResolver;
 
+	@Component
+	private ArtifactHandlerManager artifactHandlerManager;
+
+	private static final String[] EXCLUDED_SCOPES = { "system", "provided",
+		"test" };
+
 	private DefaultDependableCoordinate coordinate = new DefaultDependableCoordinate();
 
 	private File imagejDir;
@@ -132,6 +199,11 @@ public class CopyJarsMojo extends AbstractCopyJarsMojo {
 	@Parameter( defaultValue = "${mojoExecution}", readonly = true )
 	MojoExecution mojoExecution;
 	
+	@Override
+	protected File getCacheDirectory() {
+		return getCacheDirectory(session.getLocalRepository());
+	}
+
 	@Override
 	public void execute() throws MojoExecutionException {
 		// Keep backwards compatibility to delete.other.versions
@@ -150,6 +222,7 @@ public class CopyJarsMojo extends AbstractCopyJarsMojo {
 		if (imagejDirectory == null) {
 			if (hasIJ1Dependency(project)) getLog().info(
 				"Property '" + imagejDirectoryProperty + "' unset; Skipping copy-jars");
+			if (installAtEnd) installAtEnd(null, null);
 			return;
 		}
 		final String interpolated = interpolate(imagejDirectory, project, session);
@@ -165,6 +238,7 @@ public class CopyJarsMojo extends AbstractCopyJarsMojo {
 				"'" + imagejDirectory + "'" +
 					(interpolated.equals(imagejDirectory) ? "" : " (" + imagejDirectory + ")") +
 					" is not an ImageJ.app/ directory; Skipping copy-jars");
+			if (installAtEnd) installAtEnd(null, null);
 			return;
 		}
 
@@ -175,31 +249,175 @@ public class CopyJarsMojo extends AbstractCopyJarsMojo {
 		coordinate.setType(project.getPackaging());
 
 		try {
-			TransformableFilter scopeFilter = ScopeFilter.excluding("system", "provided", "test");
+			final long resolving = getMetrics().start();
+			final List<Artifact> resolved = resolveDependencies();
+			getMetrics().stop(Phase.resolve, resolving);
+			getMetrics().add(Counter.artifactsResolved, resolved.size());
+
+			final Map<Artifact, String> artifacts = new LinkedHashMap<>();
+			for (final Artifact artifact : resolved) {
+				artifacts.put(artifact, project.getArtifact().equals(artifact)
+					? imagejSubdirectory : null);
+			}
+			if (installAtEnd) installAtEnd(imagejDir, artifacts);
+			else installArtifacts(artifacts, imagejDir, false,
+				deleteOtherVersionsPolicy, installThreads);
+		}
+		finally {
+			reportMetrics("copy-jars", imagejDir, metricsFile);
+		}
+	}
+
+	/**
+	 * Adds the project's artifacts to those of the reactor, and installs all of
+	 * them if this is the last project to execute this goal.
+	 */
+	private void installAtEnd(final File directory,
+		final Map<Artifact, String> artifacts) throws MojoExecutionException
+	{
+		final ReactorInstall reactor = ReactorInstall.get(session);
+		if (reactor.add(project, directory, artifacts) < getReactorSize()) {
+			if (directory != null) getLog().info("Deferring installation into '" +
+				directory + "' until the end of the build");
+			reactor.installAtSessionEnd(session, left -> {
+				getLog().warn("Not every project installing at the end of the " +
+					"build got to execute copy-jars; installing what was collected");
+				install(left);
+			});
+			return;
+		}
+		install(reactor.remove(session));
+	}
+
+	/**
+	 * Installs the artifacts collected from the reactor.
+	 */
+	private void install(final Map<File, Map<Artifact, String>> reactor)
+		throws MojoExecutionException
+	{
+		for (final Map.Entry<File, Map<Artifact, String>> entry : reactor
+			.entrySet())
+		{
+			getLog().info("Installing " + entry.getValue().size() +
+				" artifacts of the build into '" + entry.getKey() + "'");
+			installArtifacts(entry.getValue(), entry.getKey(), false,
+				deleteOtherVersionsPolicy, installThreads);
+		}
+	}
+
+	/**
+	 * Counts the projects of the reactor that execute this goal.
+	 * <p>
+	 * If the current project does not declare an execution of this goal, the
+	 * goal was invoked from the command line, i.e. for every project.
+	 * </p>
+	 */
+	private int getReactorSize() {
+		final String key = mojoExecution.getMojoDescriptor().getPluginDescriptor()
+			.getPluginLookupKey();
+		final String goal = mojoExecution.getMojoDescriptor().getGoal();
+		int count = 0;
+		boolean found = false;
+		for (final MavenProject other : session.getProjects()) {
+			final Plugin plugin = other.getPlugin(key);
+			if (plugin == null) continue;
+			for (final PluginExecution execution : plugin.getExecutions()) {
+				if (!execution.getGoals().contains(goal)) continue;
+				count++;
+				if (other.getId().equals(project.getId())) found = true;
+				break;
+			}
+		}
+		return found ? count : session.getProjects().size();
+	}
+
+	/**
+	 * Resolves the project's dependencies, or reuses the result of a previous
+	 * resolution if nothing changed in the meantime.
+	 */
+	private List<Artifact> resolveDependencies() throws MojoExecutionException {
+		final File cacheDirectory = getCacheDirectory();
+		final ResolvedDependencies cache = cacheDirectory == null ? null
+			: new ResolvedDependencies(new File(cacheDirectory, "resolved/" +
+				project.getGroupId() + "/" + project.getArtifactId() + ".txt"));
+		final String key = getResolutionKey();
+		if (cache != null && !forceResolve && !session.getRequest()
+			.isUpdateSnapshots())
+		{
+			final List<Artifact> cached = cache.load(key, project.getArtifact(),
+				artifactHandlerManager::getArtifactHandler);
+			if (cached != null) {
+				getLog().info("Dependencies unchanged; skipping resolution");
+				return cached;
+			}
+		}
+
+		final List<Artifact> artifacts = new ArrayList<>();
+		try {
+			TransformableFilter scopeFilter = ScopeFilter.excluding(EXCLUDED_SCOPES);
 			
 			ProjectBuildingRequest buildingRequest = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
 			buildingRequest.setProject( project );
 
 			Iterable<ArtifactResult> resolveDependencies = dependencyResolver
 					.resolveDependencies(buildingRequest, coordinate, scopeFilter);
-				for (ArtifactResult result : resolveDependencies) {
-					try {
-						if (project.getArtifact().equals(result.getArtifact())) {
-							installArtifact(result.getArtifact(), imagejDir, imagejSubdirectory, false,
-								deleteOtherVersionsPolicy);
-							continue;
-						}
-						installArtifact(result.getArtifact(), imagejDir, false, deleteOtherVersionsPolicy);
-					}
-					catch (IOException e) {
-						throw new MojoExecutionException("Couldn't download artifact " +
-							result.getArtifact() + ": " + e.getMessage(), e);
-					}
-				}
+			for (ArtifactResult result : resolveDependencies) {
+				artifacts.add(result.getArtifact());
+			}
 		}
 		catch (DependencyResolverException e) {
 			throw new MojoExecutionException(
 				"Couldn't resolve dependencies for artifact: " + e.getMessage(), e);
 		}
+
+		if (cache != null) {
+			try {
+				cache.save(key, artifacts, project.getArtifact());
+			}
+			catch (final IOException e) {
+				getLog().warn("Could not save resolved dependencies", e);
+			}
+		}
+		return artifacts;
+	}
+
+	/**
+	 * Digests everything the resolution of the project's dependencies depends
+	 * on, except for the contents of the local repository; the resolved files,
+	 * and their POMs and metadata, are checked by {@link ResolvedDependencies}.
+	 */
+	private String getResolutionKey() {
+		final ResolvedDependencies.KeyBuilder key =
+			new ResolvedDependencies.KeyBuilder();
+		key.add(project.getId()).add(project.getPackaging()).add(Arrays.toString(
+			EXCLUDED_SCOPES));
+		for (final Dependency dependency : project.getDependencies()) {
+			addDependency(key, dependency);
+		}
+		final DependencyManagement management = project.getDependencyManagement();
+		if (management != null) {
+			key.add("dependencyManagement");
+			for (final Dependency dependency : management.getDependencies()) {
+				addDependency(key, dependency);
+			}
+		}
+		for (final ArtifactRepository repository : project
+			.getRemoteArtifactRepositories())
+		{
+			key.add(repository.getId()).add(repository.getUrl());
+		}
+		key.add(session.getLocalRepository().getBasedir());
+		return key.build();
+	}
+
+	private static void addDependency(final ResolvedDependencies.KeyBuilder key,
+		final Dependency dependency)
+	{
+		key.add(dependency.getManagementKey()).add(dependency.getVersion()).add(
+			dependency.getScope()).add(dependency.isOptional()).add(dependency
+				.getSystemPath());
+		for (final Exclusion exclusion : dependency.getExclusions()) {
+			key.add(exclusion.getGroupId() + ":" + exclusion.getArtifactId());
+		}
 	}
 }
@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Remembers the SHA-1 digests of files, keyed by path, size and modification
+ * time.
+ * <p>
+ * As long as a file is not modified, looking up its digest costs a single
+ * {@code stat} call and no reads. If the cache is backed by a file, the
+ * digests survive between builds.
+ * </p>
+ */
+class DigestCache extends FileStampCache {
+
+	/**
+	 * @param file the file to persist the cache to, or {@code null} to cache the
+	 *          digests in memory only
+	 */
+	public DigestCache(final File file) {
+		super(file, "SHA-1 digests");
+	}
+
+	/**
+	 * Obtains the SHA-1 digest of a file, computing it only if necessary.
+	 *
+	 * @param path the file
+	 * @param attributes the file's current attributes
+	 * @param trustSidecar whether a {@code .sha1} file next to the file may be
+	 *          used instead of reading the file itself; this should only be
+	 *          done for immutable files, i.e. release artifacts
+	 * @return the digest as hex string
+	 * @throws IOException if the file could not be read
+	 */
+	public String digest(final Path path, final BasicFileAttributes attributes,
+		final boolean trustSidecar) throws IOException
+	{
+		final String digest = lookup(path, attributes, trustSidecar);
+		if (digest != null) return digest;
+		final String computed = compute(path);
+		put(path, attributes, computed);
+		return computed;
+	}
+
+	/**
+	 * Obtains the SHA-1 digest of a file if it is known without reading the
+	 * file.
+	 *
+	 * @param path the file
+	 * @param attributes the file's current attributes
+	 * @param trustSidecar whether a {@code .sha1} file next to the file may be
+	 *          used
+	 * @return the digest as hex string, or {@code null} if it is not known
+	 */
+	public String lookup(final Path path, final BasicFileAttributes attributes,
+		final boolean trustSidecar)
+	{
+		final String cached = get(path, attributes);
+		if (cached != null) return cached;
+		final String digest = trustSidecar ? readSidecar(path) : null;
+		if (digest != null) put(path, attributes, digest);
+		return digest;
+	}
+
+	/**
+	 * Records the digest of a file whose contents are known, e.g. because it
+	 * was just copied from a file with a known digest.
+	 *
+	 * @param path the file
+	 * @param digest its SHA-1 digest as hex string
+	 * @throws IOException if the file's attributes could not be read
+	 */
+	public void put(final Path path, final String digest) throws IOException {
+		put(path, attributes(path), digest);
+	}
+
+	/**
+	 * Reads the digest from a {@code .sha1} file next to the given file.
+	 *
+	 * @param path the file
+	 * @return the digest, or {@code null} if there is no usable {@code .sha1}
+	 *         file
+	 */
+	static String readSidecar(final Path path) {
+		final String digest = Checksums.readSidecar(path, ".sha1");
+		return digest != null && digest.length() == 40 ? digest : null;
+	}
+
+	/**
+	 * Computes the SHA-1 digest of a file by reading it.
+	 *
+	 * @param path the file
+	 * @return the digest as hex string
+	 * @throws IOException if the file could not be read
+	 */
+	static String compute(final Path path) throws IOException {
+		final MessageDigest digest = sha1();
+		final byte[] buffer = new byte[65536];
+		try (final InputStream in = Files.newInputStream(path)) {
+			for (;;) {
+				final int count = in.read(buffer);
+				if (count < 0) break;
+				digest.update(buffer, 0, count);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	static MessageDigest sha1() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String toHex(final byte[] bytes) {
+		final char[] hex = "0123456789abcdef".toCharArray();
+		final char[] result = new char[2 * bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			result[2 * i] = hex[(bytes[i] >> 4) & 0xf];
+			result[2 * i + 1] = hex[bytes[i] & 0xf];
+		}
+		return new String(result);
+	}
+}
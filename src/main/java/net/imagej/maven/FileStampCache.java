@@ -0,0 +1,239 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers a value per file, keyed by path, size and modification time.
+ * <p>
+ * As long as a file is not modified, looking up its value costs a single
+ * {@code stat} call and no reads. If the cache is backed by a file, the values
+ * survive between builds.
+ * </p>
+ */
+class FileStampCache {
+
+	private final File file;
+
+	private final String description;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private boolean loaded;
+
+	private volatile boolean modified;
+
+	/**
+	 * @param file the file to persist the cache to, or {@code null} to cache the
+	 *          values in memory only
+	 * @param description what the values are, for the header of the file
+	 */
+	public FileStampCache(final File file, final String description) {
+		this.file = file;
+		this.description = description;
+	}
+
+	/**
+	 * Looks up the value for a file.
+	 *
+	 * @param path the file
+	 * @param attributes the file's current attributes
+	 * @return the value, or {@code null} if none was recorded for the current
+	 *         state of the file
+	 */
+	public String get(final Path path, final BasicFileAttributes attributes) {
+		final Entry entry = entries().get(key(path));
+		return entry != null && entry.matches(attributes) ? entry.value : null;
+	}
+
+	/**
+	 * Records the value for the current state of a file.
+	 *
+	 * @param path the file
+	 * @param attributes the file's current attributes
+	 * @param value the value
+	 */
+	public void put(final Path path, final BasicFileAttributes attributes,
+		final String value)
+	{
+		entries().put(key(path), new Entry(attributes.size(), attributes
+			.lastModifiedTime().toMillis(), value));
+		modified = true;
+	}
+
+	/**
+	 * Forgets about a (deleted) file.
+	 *
+	 * @param path the file
+	 */
+	public void remove(final Path path) {
+		if (entries().remove(key(path)) != null) modified = true;
+	}
+
+	/**
+	 * Forgets about all files in a (deleted) directory.
+	 *
+	 * @param directory the directory
+	 */
+	public void removeAll(final Path directory) {
+		final String prefix = key(directory) + File.separator;
+		if (entries().keySet().removeIf(key -> key.startsWith(prefix))) {
+			modified = true;
+		}
+	}
+
+	/**
+	 * Updates the paths of all files that were moved, along with the directory
+	 * containing them, to a new location.
+	 *
+	 * @param from the old location of the directory
+	 * @param to the new location of the directory
+	 */
+	public void relocate(final Path from, final Path to) {
+		final String prefix = key(from) + File.separator;
+		final String replacement = key(to) + File.separator;
+		for (final String key : new ArrayList<>(entries().keySet())) {
+			if (!key.startsWith(prefix)) continue;
+			final Entry entry = entries.remove(key);
+			if (entry == null) continue;
+			entries.put(replacement + key.substring(prefix.length()), entry);
+			modified = true;
+		}
+	}
+
+	/**
+	 * Writes the cache to disk, merging it with entries that other builds
+	 * might have written in the meantime.
+	 *
+	 * @throws IOException if the cache could not be written
+	 */
+	public synchronized void save() throws IOException {
+		if (file == null || !modified) return;
+		final Properties properties = read(file);
+		for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+		final File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not make directory: " + directory);
+		}
+		final Path temporary = Files.createTempFile(directory.toPath(), file
+			.getName(), ".tmp");
+		try (final OutputStream out = Files.newOutputStream(temporary)) {
+			properties.store(out, description + " (size,lastModified,value)");
+		}
+		Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		modified = false;
+	}
+
+	private synchronized Map<String, Entry> entries() {
+		if (loaded) return entries;
+		loaded = true;
+		if (file == null) return entries;
+		try {
+			final Properties properties = read(file);
+			for (final String key : properties.stringPropertyNames()) {
+				final Entry entry = Entry.parse(properties.getProperty(key));
+				if (entry != null) entries.putIfAbsent(key, entry);
+			}
+		}
+		catch (final IOException e) {
+			// start from scratch
+		}
+		return entries;
+	}
+
+	private static Properties read(final File file) throws IOException {
+		final Properties properties = new Properties();
+		if (file.exists()) {
+			try (final InputStream in = Files.newInputStream(file.toPath())) {
+				properties.load(in);
+			}
+		}
+		return properties;
+	}
+
+	static BasicFileAttributes attributes(final Path path) throws IOException {
+		return Files.readAttributes(path, BasicFileAttributes.class);
+	}
+
+	private static String key(final Path path) {
+		return path.toAbsolutePath().normalize().toString();
+	}
+
+	private static class Entry {
+
+		private final long size, lastModified;
+		private final String value;
+
+		private Entry(final long size, final long lastModified, final String value) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.value = value;
+		}
+
+		private boolean matches(final BasicFileAttributes attributes) {
+			return size == attributes.size() &&
+				lastModified == attributes.lastModifiedTime().toMillis();
+		}
+
+		@Override
+		public String toString() {
+			return size + "," + lastModified + "," + value;
+		}
+
+		private static Entry parse(final String value) {
+			final String[] tokens = value.split(",", 3);
+			if (tokens.length != 3) return null;
+			try {
+				return new Entry(Long.parseLong(tokens[0]), Long.parseLong(tokens[1]),
+					tokens[2]);
+			}
+			catch (final NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+}
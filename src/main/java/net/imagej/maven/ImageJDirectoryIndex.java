@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of the files in an ImageJ.app/ directory, keyed by the base
+ * name and suffix of each file name (see {@link VersionedFileName}).
+ * <p>
+ * The directory is walked only once, on first use. Afterwards, the index is
+ * kept up to date via {@link #add(Path)} and {@link #remove(Path)}, unless it
+ * is {@link #invalidate() invalidated}.
+ * </p>
+ */
+class ImageJDirectoryIndex {
+
+	private final Path directory;
+
+	private final InstallMetrics metrics;
+
+	private Map<String, Set<Path>> versions;
+
+	public ImageJDirectoryIndex(final Path directory) {
+		this(directory, new InstallMetrics());
+	}
+
+	/**
+	 * @param directory the ImageJ.app/ directory
+	 * @param metrics the metrics to count the walked files in
+	 */
+	public ImageJDirectoryIndex(final Path directory,
+		final InstallMetrics metrics)
+	{
+		this.directory = directory.normalize();
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Looks for files with the same base name and suffix as {@code file}.
+	 *
+	 * @param file A {@link Path} to the target (from which the base name is
+	 *          derived).
+	 * @return A collection of {@link Path}s to files of the same base name, or
+	 *         {@code null} if the file name does not follow the versioning
+	 *         scheme.
+	 * @throws IOException if the directory could not be walked
+	 */
+	public synchronized Collection<Path> getEncroachingVersions(final Path file)
+		throws IOException
+	{
+		final String fileName = file.getFileName().toString();
+		final String key = key(fileName);
+		if (key == null) return null;
+
+		final Collection<Path> result = new ArrayList<>();
+		final Set<Path> paths = versions().get(key);
+		if (paths == null) return result;
+		for (final Path path : paths) {
+			if (!path.getFileName().toString().equals(fileName)) result.add(path);
+		}
+		return result;
+	}
+
+	/**
+	 * Records a file that was copied into the directory.
+	 *
+	 * @param file the {@link Path} to the new file
+	 */
+	public synchronized void add(final Path file) {
+		if (versions == null) return;
+		final String key = key(file.getFileName().toString());
+		if (key == null) return;
+		versions.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(file
+			.normalize());
+	}
+
+	/**
+	 * Forgets about a file that was deleted from the directory.
+	 *
+	 * @param file the {@link Path} to the deleted file
+	 */
+	public synchronized void remove(final Path file) {
+		if (versions == null) return;
+		final String key = key(file.getFileName().toString());
+		if (key == null) return;
+		final Set<Path> paths = versions.get(key);
+		if (paths != null) paths.remove(file.normalize());
+	}
+
+	/**
+	 * Looks up a file that might have been modified by another process.
+	 *
+	 * @param file the {@link Path} to the file
+	 */
+	public synchronized void refresh(final Path file) {
+		if (Files.exists(file, LinkOption.NOFOLLOW_LINKS)) add(file);
+		else remove(file);
+	}
+
+	/**
+	 * Forgets about the contents of the directory, so that it is walked again
+	 * on next use.
+	 */
+	public synchronized void invalidate() {
+		versions = null;
+	}
+
+	private Map<String, Set<Path>> versions() throws IOException {
+		if (versions != null) return versions;
+		final Map<String, Set<Path>> map = new HashMap<>();
+		final Path state = directory.resolve(AbstractCopyJarsMojo.STATE_DIRECTORY);
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(final Path path,
+				final BasicFileAttributes attributes)
+			{
+				if (path.startsWith(state)) return FileVisitResult.SKIP_SUBTREE;
+				record(path);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path path,
+				final BasicFileAttributes attributes)
+			{
+				record(path);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(final Path path,
+				final IOException e) throws IOException
+			{
+				// concurrent builds might delete files while we walk
+				if (e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+				throw e;
+			}
+
+			private void record(final Path path) {
+				final Path name = path.getFileName();
+				if (name == null) return;
+				metrics.increment(InstallMetrics.Counter.filesWalked);
+				final String key = key(name.toString());
+				if (key == null) return;
+				metrics.increment(InstallMetrics.Counter.fileNamesMatched);
+				map.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(path);
+			}
+		});
+		versions = map;
+		return versions;
+	}
+
+	/**
+	 * Derives the index key from a file name.
+	 *
+	 * @param fileName the file name
+	 * @return the base name and the suffix, or {@code null} if the file name
+	 *         does not follow the versioning scheme
+	 */
+	static String key(final String fileName) {
+		final VersionedFileName parsed = VersionedFileName.parse(fileName);
+		return parsed == null ? null : parsed.getKey();
+	}
+}
@@ -33,20 +33,36 @@ package net.imagej.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import net.imagej.maven.InstallMetrics.Counter;
+import net.imagej.maven.InstallMetrics.Phase;
+
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.manager.ArtifactHandlerManager;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.repository.ArtifactRepositoryFactory;
 import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
 import org.apache.maven.artifact.repository.MavenArtifactRepository;
 import org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout;
+import org.apache.maven.artifact.versioning.VersionRange;
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -62,14 +78,15 @@ import org.apache.maven.shared.artifact.filter.resolve.Node;
 import org.apache.maven.shared.artifact.filter.resolve.ScopeFilter;
 import org.apache.maven.shared.artifact.filter.resolve.TransformableFilter;
 import org.apache.maven.shared.artifact.resolve.ArtifactResolver;
+import org.apache.maven.shared.artifact.resolve.ArtifactResolverException;
 import org.apache.maven.shared.artifact.resolve.ArtifactResult;
 import org.apache.maven.shared.dependencies.DefaultDependableCoordinate;
-import org.apache.maven.shared.dependencies.DependableCoordinate;
 import org.apache.maven.shared.dependencies.resolve.DependencyResolver;
 import org.apache.maven.shared.dependencies.resolve.DependencyResolverException;
 import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluationException;
 import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator;
 import org.codehaus.plexus.util.StringUtils;
+import org.scijava.util.VersionUtils;
 
 /**
  * Downloads .jar artifacts and their dependencies into an ImageJ.app/ directory
@@ -126,6 +143,72 @@ public class InstallArtifactMojo extends AbstractCopyJarsMojo {
 	@Parameter(property = deleteOtherVersionsPolicyProperty, defaultValue = "older")
 	private OtherVersions deleteOtherVersionsPolicy;
 
+	/**
+	 * The number of threads to use when installing artifacts.
+	 * <p>
+	 * Artifacts sharing the same base name are always installed by the same
+	 * thread, one after the other, so that other versions are handled exactly
+	 * as when using a single thread.
+	 * </p>
+	 */
+	@Parameter(property = installThreadsProperty, defaultValue = "1")
+	private int installThreads;
+
+	/**
+	 * The number of threads to use when downloading artifacts.
+	 * <p>
+	 * If positive, only the dependency graph is resolved up front. The artifacts
+	 * are then downloaded by this many threads (instead of
+	 * {@code installThreads}), and each artifact is installed as soon as it is
+	 * downloaded, while the others are still being downloaded. By default, all
+	 * artifacts are downloaded before the first one is installed.
+	 * </p>
+	 */
+	@Parameter(property = downloadThreadsProperty, defaultValue = "0")
+	private int downloadThreads;
+
+	/**
+	 * Where to write the timings and counters of the execution, as JSON.
+	 * <p>
+	 * Unlike for {@code copy-jars}, there is no default: this goal is usually
+	 * run outside of any project, where there is no build directory to write
+	 * to.
+	 * </p>
+	 */
+	@Parameter(property = metricsFileProperty)
+	private File metricsFile;
+
+	/**
+	 * How often to look for updates in the remote repositories.
+	 * <p>
+	 * One of {@code always}, {@code daily}, {@code interval:N} (every N
+	 * minutes), {@code never} or {@code offline-when-complete}.
+	 * </p>
+	 * <p>
+	 * The resolved dependencies are remembered in the local repository. Unless
+	 * the policy is {@code always}, they are reused without contacting any
+	 * repository if all requested versions and all resolved dependencies are
+	 * releases, which never change, and all their files are still there. If
+	 * SNAPSHOT versions are involved, the resolved dependencies are reused only
+	 * until the next check for updates is due; {@code never} reuses them
+	 * indefinitely.
+	 * </p>
+	 * <p>
+	 * {@code offline-when-complete} works offline as long as the local
+	 * repository has the requested artifacts and all their dependencies: like
+	 * {@code never}, it neither looks for updates nor contacts any repository
+	 * for what is already there. Only if that fails, e.g. because a dependency
+	 * is missing, it looks for updates in the remote repositories like
+	 * {@code always}. Running Maven with {@code -U} forces a new resolution.
+	 * </p>
+	 * <p>
+	 * The policy applies to all remote repositories, including those declared
+	 * in the POM.
+	 * </p>
+	 */
+	@Parameter(property = updatePolicyProperty, defaultValue = "always")
+	private String updatePolicy;
+
 	/**
 	 * Session
 	 */
@@ -204,12 +287,44 @@ public class InstallArtifactMojo extends AbstractCopyJarsMojo {
 	@Parameter(property = "artifact")
 	private String artifact;
 
+	/**
+	 * Further artifacts to install, each of the form
+	 * groupId:artifactId:version[:packaging].
+	 * <p>
+	 * All requested artifacts are resolved together, as if they were the
+	 * dependencies of a single project: if they depend on different versions of
+	 * the same artifact, only one version is installed. On the command line,
+	 * the artifacts are separated by commas.
+	 * </p>
+	 */
+	@Parameter(property = "artifacts")
+	private List<String> artifacts;
+
+	/**
+	 * A file listing further artifacts to install, one
+	 * groupId:artifactId:version[:packaging] per line.
+	 * <p>
+	 * Empty lines and lines starting with {@code #} are ignored. The artifacts
+	 * are resolved together with those specified via {@code artifacts}.
+	 * </p>
+	 */
+	@Parameter(property = "artifactsFile")
+	private File artifactsFile;
+
 	/**
 	 * The dependency resolver to.
 	 */
 	@Component
 	private DependencyResolver dependencyResolver;
 
+	@Component
+	private ArtifactHandlerManager artifactHandlerManager;
+
+	private static final String OFFLINE_WHEN_COMPLETE = "offline-when-complete";
+
+	private static final Collection<String> EXCLUDED_SCOPES = Arrays.asList(
+		"system", "provided", "test");
+
 	/**
 	 * Whether to force overwriting files.
 	 */
@@ -224,6 +339,11 @@ public class InstallArtifactMojo extends AbstractCopyJarsMojo {
 	@Parameter( defaultValue = "${mojoExecution}", readonly = true )
 	MojoExecution mojoExecution;
 
+	@Override
+	protected File getCacheDirectory() {
+		return getCacheDirectory(localRepository);
+	}
+
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		// Keep backwards compatibility to delete.other.versions
@@ -255,39 +375,17 @@ public class InstallArtifactMojo extends AbstractCopyJarsMojo {
 					" directory location was specified; Installing in default location" );
 		}
 
-		ArtifactRepositoryPolicy always = new ArtifactRepositoryPolicy(true,
-			ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS,
-			ArtifactRepositoryPolicy.CHECKSUM_POLICY_WARN);
-
-		List<ArtifactRepository> repoList = new ArrayList<>();
-
-		// Use repositories provided in POM (if available)
-		if (pomRemoteRepositories != null) {
-			repoList.addAll(pomRemoteRepositories);
-		}
-
-		// Add remote repositories provided as parameter
-		if (remoteRepositories != null) {
-			String[] repos = remoteRepositories.split(",");
-			for (String repo : repos) {
-				repoList.add(parseRepository(repo, always));
-			}
-		}
-
-		// Add ImageJ remote repository
-		repoList.add(parseRepository("http://maven.imagej.net/content/groups/public", always));
+		List<ArtifactRepository> repoList = getRepositories(
+			getRepositoryUpdatePolicy());
 
 		/*
-		 * Determine GAV to download
+		 * Determine GAVs to download
 		 */
-		if (artifactId == null && artifact == null) {
+		final List<Dependency> requested = getRequestedArtifacts();
+		if (requested.isEmpty()) {
 			throw new MojoFailureException(
 				"No artifact specified (e.g. by -Dartifact=net.imagej:ij:1.48p)");
 		}
-		if (artifact != null) {
-			String[] tokens = artifact.split(":");
-			parseArtifact(tokens);
-		}
 
 		/*
 		 * Install artifact
@@ -298,7 +396,7 @@ public class InstallArtifactMojo extends AbstractCopyJarsMojo {
 			buildingRequest.setLocalRepository(localRepository);
 			buildingRequest.setRemoteRepositories(repoList);
 
-			TransformableFilter scopeFilter = ScopeFilter.excluding("system", "provided", "test");
+			TransformableFilter scopeFilter = ScopeFilter.excluding(EXCLUDED_SCOPES);
 			TransformableFilter notOptionalFilter = new AbstractFilter() {
 				@Override
 				public boolean accept(Node node, List<Node> parents) {
@@ -307,21 +405,91 @@ public class InstallArtifactMojo extends AbstractCopyJarsMojo {
 			};
 			TransformableFilter scopeAndNotOptionalFilter = new AndFilter(Arrays.asList(scopeFilter, notOptionalFilter));
 
-			Iterable<ArtifactResult> resolveDependencies = dependencyResolver
-				.resolveDependencies(buildingRequest, coordinate, scopeAndNotOptionalFilter);
-			for (ArtifactResult result : resolveDependencies) {
-				try {
-					if ( isSameGAV(coordinate, result.getArtifact()) )
-					{
-						installArtifact( result.getArtifact(), imagejDir, imagejSubdirectory, false, deleteOtherVersionsPolicy );
-						continue;
+			// when pipelining, resolve only the graph, and download later
+			final boolean pipelined = downloadThreads > 0;
+			final Map<String, Artifact> collected = new LinkedHashMap<>();
+			final TransformableFilter filter = !pipelined ? scopeAndNotOptionalFilter
+				: new AbstractFilter() {
+					@Override
+					public boolean accept(Node node, List<Node> parents) {
+						final Dependency dependency = node.getDependency();
+						if (dependency != null && !dependency.isOptional() &&
+							!EXCLUDED_SCOPES.contains(dependency.getScope()))
+						{
+							collected.putIfAbsent(dependency.getManagementKey() + ":" +
+								dependency.getVersion(), toArtifact(dependency));
+						}
+						return false;
 					}
-					installArtifact(result.getArtifact(), imagejDir, false,
-						deleteOtherVersionsPolicy);
+				};
+
+			final long resolving = getMetrics().start();
+			final File cacheDirectory = getCacheDirectory();
+			final String key = getResolutionKey(requested, repoList);
+			final ResolvedDependencies cache = cacheDirectory == null ? null
+				: new ResolvedDependencies(new File(cacheDirectory,
+					"resolved/install-artifact/" + key + ".txt"));
+			final List<Artifact> cached = loadResolved(cache, key, requested);
+			final Iterable<?> resolveDependencies;
+			if (cached != null) {
+				getLog().info("Resolved dependencies are complete; skipping resolution");
+				resolveDependencies = cached;
+			}
+			else if (OFFLINE_WHEN_COMPLETE.equals(updatePolicy)) {
+				Iterable<?> resolved;
+				try {
+					resolved = resolveDependencies(buildingRequest, requested, filter);
 				}
-				catch (IOException e) {
-					throw new MojoExecutionException("Couldn't download artifact " +
-						artifact + ": " + e.getMessage(), e);
+				catch (final DependencyResolverException e) {
+					getLog().info("The local repository is incomplete; " +
+						"looking for updates in the remote repositories");
+					getLog().debug(e);
+					collected.clear();
+					buildingRequest.setRemoteRepositories(getRepositories(
+						ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS));
+					resolved = resolveDependencies(buildingRequest, requested, filter);
+				}
+				resolveDependencies = resolved;
+			}
+			else {
+				resolveDependencies = resolveDependencies(buildingRequest, requested,
+					filter);
+			}
+			final Map<Artifact, String> toInstall = new LinkedHashMap<>();
+			for (final Object result : cached != null || !pipelined
+				? resolveDependencies : collected.values())
+			{
+				final Artifact resolved = result instanceof ArtifactResult
+					? ((ArtifactResult) result).getArtifact() : (Artifact) result;
+				toInstall.put(resolved, isRequested(requested, resolved)
+					? imagejSubdirectory : null);
+			}
+			getMetrics().stop(Phase.resolve, resolving);
+			getMetrics().add(Counter.artifactsResolved, toInstall.size());
+			if (cached == null && pipelined) {
+				getLog().info("Downloading " + toInstall.size() +
+					" artifacts with " + downloadThreads + " threads");
+				installArtifacts(toInstall, imagejDir, false,
+					deleteOtherVersionsPolicy, downloadThreads, artifact -> {
+						try {
+							artifact.setFile(artifactResolver.resolveArtifact(
+								buildingRequest, artifact).getArtifact().getFile());
+						}
+						catch (final ArtifactResolverException e) {
+							throw new IOException(e.getMessage(), e);
+						}
+					});
+			}
+			else {
+				installArtifacts(toInstall, imagejDir, false,
+					deleteOtherVersionsPolicy, installThreads);
+			}
+			if (cache != null && cached == null) {
+				try {
+					cache.save(key, toInstall.keySet(), null);
+				}
+				catch (final IOException e) {
+					getLog().warn("Could not save resolved dependencies", e);
 				}
 			}
 		}
@@ -329,23 +497,296 @@ public class InstallArtifactMojo extends AbstractCopyJarsMojo {
 			throw new MojoExecutionException(
 				"Couldn't resolve dependencies for artifact: " + e.getMessage(), e);
 		}
+		finally {
+			reportMetrics("install-artifact", imagejDir, metricsFile);
+		}
 	}
 
 	/**
-	 * Checks if a {@link DependableCoordinate} and an {@link Artifact} share
-	 * the same GAV.
+	 * Resolves the requested artifacts and their dependencies.
+	 */
+	private Iterable<?> resolveDependencies(
+		final ProjectBuildingRequest buildingRequest,
+		final List<Dependency> requested, final TransformableFilter filter)
+		throws DependencyResolverException
+	{
+		if (requested.size() == 1) {
+			final Dependency dependency = requested.get(0);
+			coordinate.setGroupId(dependency.getGroupId());
+			coordinate.setArtifactId(dependency.getArtifactId());
+			coordinate.setVersion(dependency.getVersion());
+			coordinate.setType(dependency.getType());
+			return dependencyResolver.resolveDependencies(buildingRequest,
+				coordinate, filter);
+		}
+		// resolve all artifacts in one graph, mediating version conflicts
+		getLog().info("Resolving " + requested.size() + " artifacts together");
+		return dependencyResolver.resolveDependencies(buildingRequest, requested,
+			Collections.<Dependency> emptyList(), filter);
+	}
+
+	/**
+	 * Collects the remote repositories to resolve from: those of the POM, those
+	 * passed via {@code remoteRepositories}, and the ImageJ repository.
 	 *
-	 * @param coordinateToCompare
-	 *            a {@link DependableCoordinate} instance
-	 * @param artifactToCompare
-	 *            an {@link Artifact} instance
-	 * @return true if both parameters share the same GAV; false otherwise
-	 */
-	private boolean isSameGAV(final DependableCoordinate coordinateToCompare, final Artifact artifactToCompare) {
-		boolean same = coordinateToCompare.getGroupId().equals(artifactToCompare.getGroupId());
-		same = same && coordinateToCompare.getArtifactId().equals(artifactToCompare.getArtifactId());
-		same = same && coordinateToCompare.getVersion().equals(artifactToCompare.getVersion());
-		return same;
+	 * @param repositoryUpdatePolicy the update policy for all of them
+	 */
+	private List<ArtifactRepository> getRepositories(
+		final String repositoryUpdatePolicy) throws MojoFailureException
+	{
+		ArtifactRepositoryPolicy policy = new ArtifactRepositoryPolicy(true,
+			repositoryUpdatePolicy, getRepositoryChecksumPolicy());
+
+		List<ArtifactRepository> repoList = new ArrayList<>();
+
+		// Use repositories provided in POM (if available)
+		if (pomRemoteRepositories != null) {
+			for (final ArtifactRepository repository : pomRemoteRepositories) {
+				repoList.add(withPolicy(repository, repositoryUpdatePolicy));
+			}
+		}
+
+		// Add remote repositories provided as parameter
+		if (remoteRepositories != null) {
+			String[] repos = remoteRepositories.split(",");
+			for (String repo : repos) {
+				repoList.add(parseRepository(repo, policy));
+			}
+		}
+
+		// Add ImageJ remote repository
+		repoList.add(parseRepository("http://maven.imagej.net/content/groups/public", policy));
+		return repoList;
+	}
+
+	/**
+	 * Copies a repository of the POM, replacing its update and checksum
+	 * policies. The repository itself is shared with the rest of the build, and
+	 * must not be modified.
+	 */
+	private ArtifactRepository withPolicy(final ArtifactRepository repository,
+		final String repositoryUpdatePolicy)
+	{
+		final ArtifactRepository result = new MavenArtifactRepository(repository
+			.getId(), repository.getUrl(), repository.getLayout(), withPolicy(
+				repository.getSnapshots(), repositoryUpdatePolicy), withPolicy(
+					repository.getReleases(), repositoryUpdatePolicy));
+		result.setAuthentication(repository.getAuthentication());
+		result.setProxy(repository.getProxy());
+		return result;
+	}
+
+	private ArtifactRepositoryPolicy withPolicy(
+		final ArtifactRepositoryPolicy policy, final String repositoryUpdatePolicy)
+	{
+		return new ArtifactRepositoryPolicy(policy == null || policy.isEnabled(),
+			repositoryUpdatePolicy, getRepositoryChecksumPolicy());
+	}
+
+	/**
+	 * Turns a node of the dependency graph into an artifact that still needs to
+	 * be downloaded.
+	 */
+	private Artifact toArtifact(final Dependency dependency) {
+		return new DefaultArtifact(dependency.getGroupId(), dependency
+			.getArtifactId(), VersionRange.createFromVersion(dependency.getVersion()),
+			dependency.getScope(), dependency.getType(), dependency.getClassifier(),
+			artifactHandlerManager.getArtifactHandler(dependency.getType()), false);
+	}
+
+	/**
+	 * Translates the {@code updatePolicy} into the update policy of the remote
+	 * repositories.
+	 */
+	private String getRepositoryUpdatePolicy() throws MojoFailureException {
+		if (OFFLINE_WHEN_COMPLETE.equals(updatePolicy)) {
+			// until the local repository turns out to be incomplete
+			return ArtifactRepositoryPolicy.UPDATE_POLICY_NEVER;
+		}
+		if (ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS.equals(updatePolicy) ||
+			ArtifactRepositoryPolicy.UPDATE_POLICY_DAILY.equals(updatePolicy) ||
+			ArtifactRepositoryPolicy.UPDATE_POLICY_NEVER.equals(updatePolicy) ||
+			getInterval() > 0)
+		{
+			return updatePolicy;
+		}
+		throw new MojoFailureException("Invalid update policy '" + updatePolicy +
+			"'; use always, daily, interval:N, never or " + OFFLINE_WHEN_COMPLETE);
+	}
+
+	/**
+	 * Translates the {@link ChecksumPolicy} into the checksum policy of the
+	 * remote repositories, so that downloads are verified, too.
+	 */
+	private String getRepositoryChecksumPolicy() {
+		switch (getChecksumPolicy()) {
+			case ignore:
+				return ArtifactRepositoryPolicy.CHECKSUM_POLICY_IGNORE;
+			case fail:
+				return ArtifactRepositoryPolicy.CHECKSUM_POLICY_FAIL;
+			default:
+				return ArtifactRepositoryPolicy.CHECKSUM_POLICY_WARN;
+		}
+	}
+
+	/**
+	 * @return the number of minutes between checks for updates if the policy is
+	 *         {@code interval:N}, or -1 otherwise
+	 */
+	private long getInterval() {
+		final String prefix = ArtifactRepositoryPolicy.UPDATE_POLICY_INTERVAL + ":";
+		if (!updatePolicy.startsWith(prefix)) return -1;
+		try {
+			return Long.parseLong(updatePolicy.substring(prefix.length()));
+		}
+		catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads the dependencies resolved previously, if the update policy allows
+	 * using them.
+	 *
+	 * @return the resolved artifacts, or {@code null} if they need to be
+	 *         resolved
+	 */
+	private List<Artifact> loadResolved(final ResolvedDependencies cache,
+		final String key, final List<Dependency> requested)
+	{
+		if (cache == null || session.getRequest().isUpdateSnapshots() ||
+			ArtifactRepositoryPolicy.UPDATE_POLICY_ALWAYS.equals(updatePolicy))
+		{
+			return null;
+		}
+		final List<Artifact> cached = cache.load(key, null,
+			artifactHandlerManager::getArtifactHandler);
+		if (cached == null) return null;
+		if (ArtifactRepositoryPolicy.UPDATE_POLICY_NEVER.equals(updatePolicy) ||
+			OFFLINE_WHEN_COMPLETE.equals(updatePolicy))
+		{
+			return cached;
+		}
+
+		boolean releasesOnly = true;
+		for (final Dependency dependency : requested) {
+			if (ArtifactUtils.isSnapshot(dependency.getVersion())) {
+				releasesOnly = false;
+			}
+		}
+		for (final Artifact artifact : cached) {
+			if (artifact.isSnapshot()) releasesOnly = false;
+		}
+		if (releasesOnly) return cached;
+
+		// SNAPSHOTs might have changed; is a check for updates due?
+		final long lastSaved = cache.getLastSaved();
+		final long interval = getInterval();
+		if (interval > 0) {
+			return System.currentTimeMillis() - lastSaved < interval * 60000 ? cached
+				: null;
+		}
+		final LocalDate saved = Instant.ofEpochMilli(lastSaved).atZone(ZoneId
+			.systemDefault()).toLocalDate();
+		return saved.equals(LocalDate.now()) ? cached : null;
+	}
+
+	/**
+	 * Digests everything the resolution of the requested artifacts depends on,
+	 * except for the contents of the local repository.
+	 */
+	private String getResolutionKey(final List<Dependency> requested,
+		final List<ArtifactRepository> repositories)
+	{
+		final ResolvedDependencies.KeyBuilder key =
+			new ResolvedDependencies.KeyBuilder();
+		for (final Dependency dependency : requested) {
+			key.add(dependency.getManagementKey()).add(dependency.getVersion());
+		}
+		for (final ArtifactRepository repository : repositories) {
+			key.add(repository.getId()).add(repository.getUrl());
+		}
+		key.add(localRepository.getBasedir());
+		return key.build();
+	}
+
+	/**
+	 * Checks if an {@link Artifact} shares the GAV of one of the requested
+	 * artifacts.
+	 *
+	 * @param requested the requested artifacts
+	 * @param artifactToCompare an {@link Artifact} instance
+	 * @return true if the artifact was requested; false otherwise
+	 */
+	private static boolean isRequested(final List<Dependency> requested,
+		final Artifact artifactToCompare)
+	{
+		for (final Dependency dependency : requested) {
+			if (dependency.getGroupId().equals(artifactToCompare.getGroupId()) &&
+				dependency.getArtifactId().equals(artifactToCompare.getArtifactId()) &&
+				dependency.getVersion().equals(artifactToCompare.getVersion()))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Collects the artifacts specified via {@code artifact} (or
+	 * {@code groupId}, {@code artifactId} and {@code version}),
+	 * {@code artifacts} and {@code artifactsFile}.
+	 * <p>
+	 * If the same artifact is requested in different versions, the highest
+	 * version wins.
+	 * </p>
+	 *
+	 * @return the requested artifacts, as dependencies
+	 * @throws MojoFailureException if an artifact is specified incorrectly
+	 */
+	private List<Dependency> getRequestedArtifacts() throws MojoFailureException {
+		final List<String> specs = new ArrayList<>();
+		if (artifact != null) specs.add(artifact);
+		else if (artifactId != null) {
+			specs.add(groupId + ":" + artifactId + ":" + version + ":" + packaging);
+		}
+		if (artifacts != null) {
+			for (final String spec : artifacts) {
+				specs.addAll(Arrays.asList(spec.split("[,\\s]+")));
+			}
+		}
+		if (artifactsFile != null) {
+			try {
+				for (final String line : Files.readAllLines(artifactsFile.toPath(),
+					StandardCharsets.UTF_8))
+				{
+					if (!line.trim().startsWith("#")) specs.add(line);
+				}
+			}
+			catch (final IOException e) {
+				throw new MojoFailureException("Could not read " + artifactsFile, e);
+			}
+		}
+
+		final Map<String, Dependency> result = new LinkedHashMap<>();
+		for (final String spec : specs) {
+			if (spec.trim().isEmpty()) continue;
+			final Dependency dependency = parseArtifact(spec.trim().split(":"),
+				spec);
+			final String key = dependency.getManagementKey();
+			final Dependency other = result.get(key);
+			if (other != null && !other.getVersion().equals(dependency
+				.getVersion()))
+			{
+				getLog().warn("Requested " + key + " in versions " + other
+					.getVersion() + " and " + dependency.getVersion() +
+					"; using the higher one");
+				if (VersionUtils.compare(other.getVersion(), dependency
+					.getVersion()) > 0) continue;
+			}
+			result.put(key, dependency);
+		}
+		return new ArrayList<>(result.values());
 	}
 
 	/**
@@ -353,25 +794,24 @@ public class InstallArtifactMojo extends AbstractCopyJarsMojo {
 	 * {@code groupId:artifactId:version[:packaging]}.
 	 * 
 	 * @param tokens
+	 * @param spec the artifact string, for error messages
+	 * @return the artifact, as dependency
 	 * @throws MojoFailureException
 	 */
-	private void parseArtifact(final String[] tokens) throws MojoFailureException {
-		if (tokens.length != 3) {
+	private Dependency parseArtifact(final String[] tokens, final String spec)
+		throws MojoFailureException
+	{
+		if (tokens.length != 3 && tokens.length != 4) {
 			throw new MojoFailureException(
 				"Invalid artifact, you must specify groupId:artifactId:version " +
-					artifact);
-		}
-		groupId = tokens[0];
-		artifactId = tokens[1];
-		version = tokens[2];
-
-		coordinate.setGroupId(groupId);
-		coordinate.setArtifactId(artifactId);
-		coordinate.setVersion(version);
-
-		if (tokens.length == 4) {
-			coordinate.setType(tokens[3]);
+					spec);
 		}
+		final Dependency dependency = new Dependency();
+		dependency.setGroupId(tokens[0]);
+		dependency.setArtifactId(tokens[1]);
+		dependency.setVersion(tokens[2]);
+		dependency.setType(tokens.length == 4 ? tokens[3] : packaging);
+		return dependency;
 	}
 
 	/**
@@ -0,0 +1,596 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Coordinates concurrent installs into the same ImageJ.app/ directory, be
+ * they made by parallel builds in the same JVM (e.g. {@code mvn -T 8}) or by
+ * different Maven processes.
+ * <p>
+ * Regular installs hold a shared lock on the directory, and an exclusive lock
+ * on one of {@value #STRIPES} stripes while they install an artifact. The
+ * stripe is derived from the base name and suffix of the file name, so that
+ * all versions of the same file are handled by the same stripe, while
+ * unrelated files can be installed in parallel. Staged installs, which swap
+ * entire directories, hold an exclusive lock on the directory instead.
+ * </p>
+ * <p>
+ * Every lock is taken in the JVM first, and then on a file in
+ * {@code .imagej-maven-plugin/locks}. The stripe lock files also count the
+ * modifications made while holding the lock, followed by a short journal of
+ * the files that were modified: if another process modified files of a
+ * stripe, only those files are looked up again in the
+ * {@link ImageJDirectoryIndex} shared by the builds in this JVM. The
+ * directory is walked again only if the journal does not reach back far
+ * enough, or after a staged install.
+ * </p>
+ */
+class InstallCoordinator {
+
+	static final int STRIPES = 64;
+
+	/** The number of modified files each stripe lock file remembers. */
+	static final int JOURNAL_SIZE = 256;
+
+	private static final Map<Path, InstallCoordinator> coordinators =
+		new ConcurrentHashMap<>();
+
+	private static final Map<Path, LockFile> lockFiles =
+		new ConcurrentHashMap<>();
+
+	private final Path directory;
+
+	private final Path locks;
+
+	private final ReentrantReadWriteLock directoryLock =
+		new ReentrantReadWriteLock();
+
+	private final Object sharedMonitor = new Object();
+
+	private int sharedHolders;
+
+	private FileLock sharedLock;
+
+	private ImageJDirectoryIndex index;
+
+	/** The stripe generations the index is known to reflect. */
+	private final long[] seen = new long[STRIPES];
+
+	private InstallCoordinator(final Path directory) {
+		this.directory = directory;
+		locks = directory.resolve(AbstractCopyJarsMojo.STATE_DIRECTORY).resolve(
+			"locks");
+	}
+
+	/**
+	 * Obtains the coordinator of an ImageJ.app/ directory.
+	 *
+	 * @param directory the ImageJ.app/ directory
+	 * @return the coordinator shared by all builds in this JVM
+	 */
+	public static InstallCoordinator get(final Path directory) {
+		return coordinators.computeIfAbsent(canonicalize(directory),
+			InstallCoordinator::new);
+	}
+
+	/**
+	 * Obtains the index of the directory, shared by all builds in this JVM that
+	 * currently install into it.
+	 *
+	 * @param metrics the metrics to count the walked files in, if the index has
+	 *          to be created
+	 * @return the index
+	 * @throws IOException if the stripe lock files could not be read
+	 */
+	public synchronized ImageJDirectoryIndex getIndex(
+		final InstallMetrics metrics) throws IOException
+	{
+		if (index == null) {
+			index = new ImageJDirectoryIndex(directory, metrics);
+			resetIndex();
+		}
+		return index;
+	}
+
+	/**
+	 * Takes a lock that allows other regular installs to proceed, but no staged
+	 * ones.
+	 *
+	 * @return the lock, to be closed when done
+	 * @throws IOException if the lock file could not be locked
+	 */
+	public Closeable lockShared() throws IOException {
+		final LockFile file = getLockFile(locks.resolve("directory.lock"));
+		directoryLock.readLock().lock();
+		try {
+			synchronized (sharedMonitor) {
+				if (sharedHolders == 0) {
+					sharedLock = file.lock(true);
+					synchronized (this) {
+						resetIndex();
+					}
+				}
+				sharedHolders++;
+			}
+		}
+		catch (final IOException | RuntimeException e) {
+			directoryLock.readLock().unlock();
+			throw e;
+		}
+		return () -> {
+			try {
+				synchronized (sharedMonitor) {
+					if (--sharedHolders == 0) {
+						// the directory might be modified by other means from now on
+						try {
+							synchronized (this) {
+								resetIndex();
+							}
+						}
+						finally {
+							file.unlock(sharedLock);
+						}
+					}
+				}
+			}
+			finally {
+				directoryLock.readLock().unlock();
+			}
+		};
+	}
+
+	/**
+	 * Takes a lock that keeps all other installs out.
+	 * <p>
+	 * When the lock is released, all stripes are marked as modified.
+	 * </p>
+	 *
+	 * @return the lock, to be closed when done
+	 * @throws IOException if the lock file could not be locked
+	 */
+	public Closeable lockExclusive() throws IOException {
+		final LockFile file = getLockFile(locks.resolve("directory.lock"));
+		directoryLock.writeLock().lock();
+		final FileLock lock;
+		try {
+			lock = file.lock(false);
+		}
+		catch (final IOException | RuntimeException e) {
+			directoryLock.writeLock().unlock();
+			throw e;
+		}
+		return () -> {
+			try {
+				for (int stripe = 0; stripe < STRIPES; stripe++) {
+					final LockFile stripeFile = getStripeFile(stripe);
+					stripeFile.writeGeneration(stripeFile.readGeneration() + 1);
+				}
+				synchronized (this) {
+					resetIndex();
+				}
+			}
+			finally {
+				try {
+					file.unlock(lock);
+				}
+				finally {
+					directoryLock.writeLock().unlock();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Locks the stripe responsible for the given key.
+	 *
+	 * @param key the base name and suffix of a file name (see
+	 *          {@link ImageJDirectoryIndex#key(String)}), or the file name
+	 *          itself if it does not follow the versioning scheme
+	 * @return the lock, to be closed when done
+	 * @throws IOException if the lock file could not be locked
+	 */
+	public Lock lock(final String key) throws IOException {
+		final int stripe = (key.hashCode() & 0x7fffffff) % STRIPES;
+		final Lock lock = lock(getStripeFile(stripe));
+		if (lock.fileLock == null) return lock;
+		lock.coordinator = this;
+		lock.stripe = stripe;
+		try {
+			lock.generation = lock.file.readGeneration();
+			synchronized (this) {
+				if (index != null && seen[stripe] != lock.generation) {
+					refreshIndex(stripe, lock.file, lock.generation);
+				}
+			}
+		}
+		catch (final IOException | RuntimeException e) {
+			lock.close();
+			throw e;
+		}
+		return lock;
+	}
+
+	/**
+	 * Takes an exclusive lock on a file, both in this JVM and across processes.
+	 * <p>
+	 * The lock is reentrant within the same thread.
+	 * </p>
+	 *
+	 * @param file the lock file
+	 * @return the lock, to be closed when done
+	 * @throws IOException if the file could not be locked
+	 */
+	public static Lock lockFile(final Path file) throws IOException {
+		return lock(getLockFile(file));
+	}
+
+	private static Lock lock(final LockFile file) throws IOException {
+		file.inJVM.lock();
+		if (file.inJVM.getHoldCount() > 1) return new Lock(file, null);
+		try {
+			return new Lock(file, file.lock(false));
+		}
+		catch (final IOException | RuntimeException e) {
+			file.inJVM.unlock();
+			throw e;
+		}
+	}
+
+	private LockFile getStripeFile(final int stripe) {
+		return getLockFile(locks.resolve(String.format("%02d.lock", stripe)));
+	}
+
+	private static LockFile getLockFile(final Path path) {
+		return lockFiles.computeIfAbsent(path.toAbsolutePath().normalize(),
+			LockFile::new);
+	}
+
+	/**
+	 * Makes the index walk the directory again on next use, and records the
+	 * generations of all stripes before that walk.
+	 */
+	private void resetIndex() throws IOException {
+		if (index != null) index.invalidate();
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			seen[stripe] = getStripeFile(stripe).readGeneration();
+		}
+	}
+
+	/**
+	 * Looks up the files that other processes modified in a stripe since the
+	 * index last reflected it, falling back to walking the directory again if
+	 * the stripe's journal does not list all of them.
+	 */
+	private void refreshIndex(final int stripe, final LockFile file,
+		final long generation) throws IOException
+	{
+		final long from = seen[stripe] + 1;
+		final TreeMap<Long, List<String>> journal = generation < from ||
+			generation - from >= JOURNAL_SIZE ? null : file.readJournal();
+		if (journal == null || journal.isEmpty() || journal.keySet().iterator()
+			.next() > from || !journal.containsKey(generation))
+		{
+			resetIndex();
+			return;
+		}
+		for (final List<String> paths : journal.tailMap(from).values()) {
+			for (final String path : paths) {
+				index.refresh(directory.resolve(path.replace('/',
+					File.separatorChar)));
+			}
+		}
+		seen[stripe] = generation;
+	}
+
+	private static Path canonicalize(final Path directory) {
+		try {
+			return directory.toRealPath();
+		}
+		catch (final IOException e) {
+			return directory.toAbsolutePath().normalize();
+		}
+	}
+
+	/**
+	 * A lock file.
+	 * <p>
+	 * Closing any channel to a file releases all of the JVM's locks on that
+	 * file, on some platforms. Therefore, every lock file is opened only once,
+	 * and closed only when nobody in this JVM uses it anymore.
+	 * </p>
+	 */
+	private static class LockFile {
+
+		private final Path path;
+
+		private final ReentrantLock inJVM = new ReentrantLock();
+
+		private int users;
+
+		private FileChannel channel;
+
+		private LockFile(final Path path) {
+			this.path = path;
+		}
+
+		/**
+		 * Locks the file, polling instead of blocking: the operating system
+		 * tracks file locks per process, not per thread, and might therefore
+		 * report spurious deadlocks when threads of two processes wait for each
+		 * other's locks.
+		 */
+		private FileLock lock(final boolean shared) throws IOException {
+			final FileChannel channel = open();
+			try {
+				for (long delay = 1;; delay = Math.min(2 * delay, 50)) {
+					final FileLock lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+					if (lock != null) return lock;
+					Thread.sleep(delay);
+				}
+			}
+			catch (final InterruptedException e) {
+				close();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while locking " + path);
+			}
+			catch (final IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		private void unlock(final FileLock lock) throws IOException {
+			try {
+				lock.release();
+			}
+			finally {
+				close();
+			}
+		}
+
+		private long readGeneration() throws IOException {
+			synchronized (this) {
+				// no need to create lock files just to read them
+				if (users == 0 && !Files.exists(path)) return 0;
+			}
+			final FileChannel channel = open();
+			try {
+				final ByteBuffer buffer = ByteBuffer.allocate(8);
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer, buffer.position()) < 0) return 0;
+				}
+				buffer.flip();
+				return buffer.getLong();
+			}
+			finally {
+				close();
+			}
+		}
+
+		/**
+		 * Reads the files recorded after the generation.
+		 *
+		 * @return the relative paths of the modified files, by generation
+		 */
+		private TreeMap<Long, List<String>> readJournal() throws IOException {
+			final TreeMap<Long, List<String>> result = new TreeMap<>();
+			final FileChannel channel = open();
+			try {
+				final long size = channel.size();
+				if (size <= 8) return result;
+				final ByteBuffer buffer = ByteBuffer.allocate((int) (size - 8));
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer, 8 + buffer.position()) < 0) break;
+				}
+				final String journal = new String(buffer.array(), 0, buffer
+					.position(), StandardCharsets.UTF_8);
+				for (final String line : journal.split("\n")) {
+					final int tab = line.indexOf('\t');
+					if (tab < 0) continue;
+					try {
+						result.computeIfAbsent(Long.parseLong(line.substring(0, tab)),
+							g -> new ArrayList<>()).add(line.substring(tab + 1));
+					}
+					catch (final NumberFormatException e) {
+						// ignore garbled lines; the generation will be missing
+					}
+				}
+			}
+			finally {
+				close();
+			}
+			return result;
+		}
+
+		/**
+		 * Writes the generation and forgets the journal, e.g. because the whole
+		 * directory might have been modified.
+		 */
+		private void writeGeneration(final long generation) throws IOException {
+			writeGeneration(generation, null);
+		}
+
+		/**
+		 * Writes the generation, and records the files modified in it in the
+		 * journal, dropping the oldest generations beyond
+		 * {@value #JOURNAL_SIZE} files.
+		 *
+		 * @param generation the new generation
+		 * @param paths the relative paths of the modified files, or
+		 *          {@code null} if they are not known
+		 */
+		private void writeGeneration(final long generation,
+			final Collection<String> paths) throws IOException
+		{
+			final FileChannel channel = open();
+			try {
+				final StringBuilder journal = new StringBuilder();
+				if (paths != null && !paths.isEmpty() &&
+					paths.size() <= JOURNAL_SIZE)
+				{
+					final TreeMap<Long, List<String>> entries = readJournal();
+					entries.put(generation, new ArrayList<>(paths));
+					int count = 0;
+					for (final List<String> list : entries.values()) {
+						count += list.size();
+					}
+					while (count > JOURNAL_SIZE) {
+						count -= entries.pollFirstEntry().getValue().size();
+					}
+					for (final Map.Entry<Long, List<String>> entry : entries
+						.entrySet())
+					{
+						for (final String path : entry.getValue()) {
+							journal.append(entry.getKey() + "\t" + path + "\n");
+						}
+					}
+				}
+				final byte[] bytes = journal.toString().getBytes(
+					StandardCharsets.UTF_8);
+				final ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
+				buffer.putLong(generation).put(bytes).flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer, buffer.position());
+				}
+				channel.truncate(8 + bytes.length);
+			}
+			finally {
+				close();
+			}
+		}
+
+		private synchronized FileChannel open() throws IOException {
+			if (users == 0) {
+				Files.createDirectories(path.getParent());
+				channel = FileChannel.open(path, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			}
+			users++;
+			return channel;
+		}
+
+		private synchronized void close() throws IOException {
+			if (--users == 0) {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	/**
+	 * An exclusive lock, held both in this JVM and on a lock file.
+	 */
+	static class Lock implements Closeable {
+
+		private final LockFile file;
+
+		private final FileLock fileLock;
+
+		private InstallCoordinator coordinator;
+
+		private int stripe = -1;
+
+		private long generation;
+
+		private boolean modified;
+
+		private final List<String> paths = new ArrayList<>();
+
+		private Lock(final LockFile file, final FileLock fileLock) {
+			this.file = file;
+			this.fileLock = fileLock;
+		}
+
+		/**
+		 * Records that files were modified while holding this lock, so that other
+		 * processes know to look them up again.
+		 *
+		 * @param paths the modified files, relative to the ImageJ.app/
+		 *          directory; if none are given, other processes walk the whole
+		 *          directory again
+		 */
+		public void modified(final Path... paths) {
+			if (paths.length == 0) this.paths.clear();
+			else if (!modified || !this.paths.isEmpty()) {
+				for (final Path path : paths) {
+					this.paths.add(path.toString().replace(File.separatorChar, '/'));
+				}
+			}
+			modified = true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				if (fileLock != null) {
+					try {
+						if (modified && stripe >= 0) {
+							file.writeGeneration(generation + 1, paths.isEmpty() ? null
+								: paths);
+							synchronized (coordinator) {
+								if (coordinator.seen[stripe] == generation) {
+									coordinator.seen[stripe] = generation + 1;
+								}
+							}
+						}
+					}
+					finally {
+						file.unlock(fileLock);
+					}
+				}
+			}
+			finally {
+				file.inJVM.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,403 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.maven.artifact.Artifact;
+
+/**
+ * Records which files were installed into an ImageJ.app/ directory, and from
+ * which artifacts.
+ * <p>
+ * The ledger lives in {@code .imagej-maven-plugin/ledger.txt} inside the
+ * ImageJ.app/ directory. Every line describes one installed file: the
+ * artifact's {@code groupId:artifactId:version}, its classifier, the path of
+ * the file relative to ImageJ.app/, its size, modification time and SHA-1
+ * digest, the time it was installed and how it was put there, e.g.
+ * {@code hardlink} (see {@link AbstractCopyJarsMojo.InstallMode}).
+ * </p>
+ */
+class InstallLedger {
+
+	private Path directory;
+
+	private final Path file;
+
+	private Map<String, Entry> entries;
+
+	/** The changes since loading, {@code null} values mark removed entries. */
+	private final Map<String, Entry> changes = new LinkedHashMap<>();
+
+	public InstallLedger(final Path directory) {
+		this(directory, getFile(directory));
+	}
+
+	/**
+	 * @param directory the directory the recorded paths are relative to
+	 * @param file the file the ledger is stored in
+	 */
+	public InstallLedger(final Path directory, final Path file) {
+		this.directory = directory.normalize();
+		this.file = file;
+	}
+
+	/**
+	 * Returns the location of the ledger of an ImageJ.app/ directory.
+	 *
+	 * @param directory the ImageJ.app/ directory
+	 * @return the ledger file
+	 */
+	public static Path getFile(final Path directory) {
+		return directory.normalize().resolve(AbstractCopyJarsMojo.STATE_DIRECTORY)
+			.resolve("ledger.txt");
+	}
+
+	/**
+	 * Looks up the entry for an installed file.
+	 *
+	 * @param path the installed file
+	 * @return the entry, or {@code null} if the file is not in the ledger
+	 */
+	public synchronized Entry get(final Path path) {
+		return entries().get(relativize(path));
+	}
+
+	/**
+	 * Looks up all files that were installed from any version of the given
+	 * artifact.
+	 *
+	 * @param artifact the artifact
+	 * @return the entries, in the order they were recorded
+	 */
+	public synchronized Collection<Entry> getVersions(final Artifact artifact) {
+		final String key = key(artifact.getGroupId(), artifact.getArtifactId(),
+			classifier(artifact));
+		final Collection<Entry> result = new ArrayList<>();
+		for (final Entry entry : entries().values()) {
+			if (key.equals(entry.key)) result.add(entry);
+		}
+		return result;
+	}
+
+	/**
+	 * Lists all recorded files.
+	 *
+	 * @return the entries, in the order they were recorded
+	 */
+	public synchronized Collection<Entry> getEntries() {
+		return new ArrayList<>(entries().values());
+	}
+
+	/**
+	 * Lists the most recently installed file of every artifact, i.e. without
+	 * the files installed from versions that were superseded since.
+	 *
+	 * @return the entries
+	 */
+	public synchronized Collection<Entry> getLatest() {
+		final Map<String, Entry> result = new LinkedHashMap<>();
+		for (final Entry entry : entries().values()) {
+			final Entry other = result.get(entry.key);
+			if (other == null || other.installed <= entry.installed) {
+				result.put(entry.key, entry);
+			}
+		}
+		return result.values();
+	}
+
+	/**
+	 * Records a file installed from an artifact.
+	 *
+	 * @param artifact the artifact
+	 * @param path the installed file
+	 * @param digest the SHA-1 digest of the installed file
+	 * @param mode how the file was put there
+	 * @throws IOException if the file's attributes could not be read
+	 */
+	public synchronized void put(final Artifact artifact, final Path path,
+		final String digest, final String mode) throws IOException
+	{
+		final String relative = relativize(path);
+		final Entry entry = new Entry(artifact.getGroupId(), artifact
+			.getArtifactId(), artifact.getVersion(), classifier(artifact), relative,
+			Files.size(path), Files.getLastModifiedTime(path).toMillis(), digest,
+			System.currentTimeMillis(), mode);
+		entries().put(relative, entry);
+		changes.put(relative, entry);
+	}
+
+	/**
+	 * Forgets about a (deleted) file.
+	 * <p>
+	 * The removal is recorded even if the file is not known to this ledger: a
+	 * concurrent build might have recorded it in the meantime.
+	 * </p>
+	 *
+	 * @param path the file
+	 */
+	public synchronized void remove(final Path path) {
+		final String relative = relativize(path);
+		entries().remove(relative);
+		changes.put(relative, null);
+	}
+
+	/**
+	 * Resolves the path of a ledger entry against the ImageJ.app/ directory.
+	 *
+	 * @param entry the entry
+	 * @return the path of the installed file
+	 */
+	public synchronized Path resolve(final Entry entry) {
+		return directory.resolve(entry.path).normalize();
+	}
+
+	/**
+	 * Makes the recorded paths relative to another directory, e.g. because the
+	 * staging directory they were installed into was swapped into place.
+	 *
+	 * @param target the directory the recorded files were moved to
+	 */
+	public synchronized void moveTo(final Path target) {
+		directory = target.normalize();
+	}
+
+	/**
+	 * Writes the ledger to disk, merging in the entries that other builds might
+	 * have written in the meantime.
+	 * <p>
+	 * The ledger file is locked while merging, so that concurrent builds do not
+	 * lose each other's entries. Files that were deleted or replaced since they
+	 * were recorded are not written.
+	 * </p>
+	 *
+	 * @throws IOException if the ledger could not be written
+	 */
+	public synchronized void save() throws IOException {
+		if (changes.isEmpty()) return;
+		final InstallCoordinator.Lock lock = InstallCoordinator.lockFile(file
+			.resolveSibling(file.getFileName() + ".lock"));
+		try {
+			final Map<String, Entry> merged = read(file);
+			for (final Map.Entry<String, Entry> change : changes.entrySet()) {
+				final Entry entry = change.getValue();
+				if (entry == null) merged.remove(change.getKey());
+				else if (isCurrent(entry)) merged.put(change.getKey(), entry);
+			}
+			write(file, merged);
+		}
+		finally {
+			lock.close();
+		}
+		changes.clear();
+	}
+
+	/**
+	 * Determines whether a recorded file is still the same, i.e. whether it was
+	 * not deleted or replaced by a concurrent build after it was recorded.
+	 */
+	private boolean isCurrent(final Entry entry) {
+		try {
+			final BasicFileAttributes attributes = FileStampCache.attributes(
+				resolve(entry));
+			return attributes.size() == entry.size && attributes.lastModifiedTime()
+				.toMillis() == entry.lastModified;
+		}
+		catch (final IOException e) {
+			return false;
+		}
+	}
+
+	private Map<String, Entry> entries() {
+		if (entries == null) {
+			try {
+				entries = read(file);
+			}
+			catch (final IOException e) {
+				entries = new LinkedHashMap<>();
+			}
+		}
+		return entries;
+	}
+
+	private String relativize(final Path path) {
+		return directory.relativize(path.toAbsolutePath().normalize()).toString()
+			.replace(File.separatorChar, '/');
+	}
+
+	private static Map<String, Entry> read(final Path file) throws IOException {
+		final Map<String, Entry> result = new LinkedHashMap<>();
+		try (final BufferedReader reader = Files.newBufferedReader(file,
+			StandardCharsets.UTF_8))
+		{
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				if (line.startsWith("#")) continue;
+				final Entry entry = Entry.parse(line);
+				if (entry != null) result.put(entry.path, entry);
+			}
+		}
+		catch (final NoSuchFileException e) {
+			// no ledger yet
+		}
+		return result;
+	}
+
+	private static void write(final Path file, final Map<String, Entry> entries)
+		throws IOException
+	{
+		Files.createDirectories(file.getParent());
+		final Path temporary = Files.createTempFile(file.getParent(), "ledger",
+			".tmp");
+		try (final BufferedWriter writer = Files.newBufferedWriter(temporary,
+			StandardCharsets.UTF_8))
+		{
+			writer.write("# groupId:artifactId:version\tclassifier\tpath\tsize" +
+				"\tlastModified\tsha1\tinstalled\tmode\n");
+			for (final Entry entry : entries.values()) {
+				writer.write(entry.toString());
+				writer.write('\n');
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String classifier(final Artifact artifact) {
+		final String classifier = artifact.getClassifier();
+		return classifier == null ? "" : classifier;
+	}
+
+	private static String key(final String groupId, final String artifactId,
+		final String classifier)
+	{
+		return groupId + ":" + artifactId + ":" + classifier;
+	}
+
+	/**
+	 * A file recorded in the ledger.
+	 */
+	static class Entry {
+
+		private final String groupId, artifactId, version, classifier, path;
+		private final long size, lastModified;
+		private final String digest;
+		private final long installed;
+		private final String mode;
+		private final String key;
+
+		private Entry(final String groupId, final String artifactId,
+			final String version, final String classifier, final String path,
+			final long size, final long lastModified, final String digest,
+			final long installed, final String mode)
+		{
+			this.groupId = groupId;
+			this.artifactId = artifactId;
+			this.version = version;
+			this.classifier = classifier;
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.digest = digest;
+			this.installed = installed;
+			this.mode = mode;
+			key = InstallLedger.key(groupId, artifactId, classifier);
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		/**
+		 * @return the path relative to the ImageJ.app/ directory, using forward
+		 *         slashes
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * @return how the file was put into the ImageJ.app/ directory
+		 */
+		public String getMode() {
+			return mode;
+		}
+
+		@Override
+		public String toString() {
+			return groupId + ":" + artifactId + ":" + version + "\t" +
+				(classifier.isEmpty() ? "-" : classifier) + "\t" + path + "\t" + size +
+				"\t" + lastModified + "\t" + digest + "\t" + installed + "\t" + mode;
+		}
+
+		private static Entry parse(final String line) {
+			final String[] tokens = line.split("\t");
+			if (tokens.length != 8) return null;
+			final String[] gav = tokens[0].split(":");
+			if (gav.length != 3) return null;
+			try {
+				return new Entry(gav[0], gav[1], gav[2], "-".equals(tokens[1]) ? ""
+					: tokens[1], tokens[2], Long.parseLong(tokens[3]), Long.parseLong(
+						tokens[4]), tokens[5], Long.parseLong(tokens[6]), tokens[7]);
+			}
+			catch (final NumberFormatException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Collects timings and counters of a mojo execution.
+ * <p>
+ * All methods are thread-safe, so that artifacts can be installed in
+ * parallel.
+ * </p>
+ */
+class InstallMetrics {
+
+	/** The phases of installing artifacts. */
+	public enum Phase {
+			resolve, download, classify, scan, verify, delete, install
+	}
+
+	/** The things that are counted. */
+	public enum Counter {
+			artifactsResolved, jarsOpened, filesWalked, fileNamesMatched, deletions,
+			filesCopied, filesLinked, bytesCopied, checksumsVerified,
+			checksumMismatches
+	}
+
+	/** The reasons why artifacts are not installed. */
+	public enum Skip {
+			notAJar, unchanged, upToDate, newerVersion
+	}
+
+	private final Instant started = Instant.now();
+
+	private final long start = System.nanoTime();
+
+	private final Map<Phase, LongAdder> nanos = new EnumMap<>(Phase.class);
+
+	private final Map<Phase, LongAdder> calls = new EnumMap<>(Phase.class);
+
+	private final Map<Counter, LongAdder> counters = new EnumMap<>(
+		Counter.class);
+
+	private final Map<Skip, LongAdder> skips = new EnumMap<>(Skip.class);
+
+	public InstallMetrics() {
+		for (final Phase phase : Phase.values()) {
+			nanos.put(phase, new LongAdder());
+			calls.put(phase, new LongAdder());
+		}
+		for (final Counter counter : Counter.values()) {
+			counters.put(counter, new LongAdder());
+		}
+		for (final Skip skip : Skip.values()) {
+			skips.put(skip, new LongAdder());
+		}
+	}
+
+	/**
+	 * Starts timing a phase.
+	 *
+	 * @return the start time, to pass to {@link #stop}
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Stops timing a phase.
+	 *
+	 * @param phase the phase
+	 * @param startTime the time returned by {@link #start()}
+	 */
+	public void stop(final Phase phase, final long startTime) {
+		nanos.get(phase).add(System.nanoTime() - startTime);
+		calls.get(phase).increment();
+	}
+
+	public void add(final Counter counter, final long value) {
+		counters.get(counter).add(value);
+	}
+
+	public void increment(final Counter counter) {
+		counters.get(counter).increment();
+	}
+
+	public void skip(final Skip reason) {
+		skips.get(reason).increment();
+	}
+
+	public long get(final Counter counter) {
+		return counters.get(counter).sum();
+	}
+
+	public long get(final Skip reason) {
+		return skips.get(reason).sum();
+	}
+
+	/**
+	 * Writes the metrics as JSON.
+	 *
+	 * @param file the file to write to
+	 * @param goal the goal that was executed
+	 * @param imagejDirectory the ImageJ.app/ directory
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(final File file, final String goal,
+		final File imagejDirectory) throws IOException
+	{
+		final File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not make directory: " + directory);
+		}
+		try (final Writer writer = Files.newBufferedWriter(file.toPath(),
+			StandardCharsets.UTF_8))
+		{
+			writer.write(toJSON(goal, imagejDirectory));
+		}
+	}
+
+	/**
+	 * Logs the metrics as a table.
+	 *
+	 * @param log the log
+	 */
+	public void log(final Log log) {
+		log.info(String.format("%-22s %10s %8s", "phase", "ms", "calls"));
+		for (final Phase phase : Phase.values()) {
+			log.info(String.format("%-22s %10.1f %8d", phase, millis(nanos.get(
+				phase).sum()), calls.get(phase).sum()));
+		}
+		log.info(String.format("%-22s %10.1f", "total", millis(System.nanoTime() -
+			start)));
+		for (final Counter counter : Counter.values()) {
+			log.info(String.format("%-22s %10d", counter, get(counter)));
+		}
+		for (final Skip skip : Skip.values()) {
+			log.info(String.format("%-22s %10d", "skipped " + skip, get(skip)));
+		}
+	}
+
+	String toJSON(final String goal, final File imagejDirectory) {
+		final StringBuilder builder = new StringBuilder();
+		builder.append("{\n");
+		builder.append("  \"goal\": ").append(quote(goal)).append(",\n");
+		builder.append("  \"imagejDirectory\": ").append(quote(
+			imagejDirectory == null ? null : imagejDirectory.getAbsolutePath()))
+			.append(",\n");
+		builder.append("  \"started\": ").append(quote(started.toString())).append(
+			",\n");
+		builder.append("  \"totalMillis\": ").append(format(millis(System
+			.nanoTime() - start))).append(",\n");
+		builder.append("  \"phases\": {");
+		String separator = "\n";
+		for (final Phase phase : Phase.values()) {
+			builder.append(separator).append("    ").append(quote(phase.name()))
+				.append(": { \"millis\": ").append(format(millis(nanos.get(phase)
+					.sum()))).append(", \"calls\": ").append(calls.get(phase).sum())
+				.append(" }");
+			separator = ",\n";
+		}
+		builder.append("\n  },\n");
+		builder.append("  \"counters\": {");
+		separator = "\n";
+		for (final Counter counter : Counter.values()) {
+			builder.append(separator).append("    ").append(quote(counter.name()))
+				.append(": ").append(get(counter));
+			separator = ",\n";
+		}
+		builder.append("\n  },\n");
+		builder.append("  \"skipped\": {");
+		separator = "\n";
+		for (final Skip skip : Skip.values()) {
+			builder.append(separator).append("    ").append(quote(skip.name()))
+				.append(": ").append(get(skip));
+			separator = ",\n";
+		}
+		builder.append("\n  }\n}\n");
+		return builder.toString();
+	}
+
+	private static double millis(final long nanoseconds) {
+		return nanoseconds / 1e6;
+	}
+
+	private static String format(final double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static String quote(final String value) {
+		if (value == null) return "null";
+		final StringBuilder builder = new StringBuilder("\"");
+		for (final char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') builder.append('\\').append(c);
+			else if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+			else builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+}
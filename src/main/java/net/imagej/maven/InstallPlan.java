@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The actions an install would take, collected instead of taking them.
+ * <p>
+ * The actions are recorded by the very code that would otherwise take them
+ * (see {@code imagej.plan}), so that the plan and the actual install cannot
+ * diverge. Every file is recorded only once per action, even if several
+ * artifacts would act on it. All methods are thread-safe.
+ * </p>
+ */
+class InstallPlan {
+
+	/** The things an install does to a file. */
+	public enum Action {
+			copy, link, upToDate, newerExists, delete, warn
+	}
+
+	private final Path directory;
+
+	private final Map<String, Step> steps = new LinkedHashMap<>();
+
+	/**
+	 * @param directory the ImageJ.app/ directory, to make the paths relative to
+	 */
+	public InstallPlan(final Path directory) {
+		this.directory = directory.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Records an action.
+	 *
+	 * @param action the action
+	 * @param path the file the action is about
+	 * @param size the size of the file
+	 * @param written the number of bytes the action would write
+	 * @param read the number of bytes the action would read
+	 * @param detail why the action would be taken, or {@code null}
+	 */
+	public synchronized void add(final Action action, final Path path,
+		final long size, final long written, final long read, final String detail)
+	{
+		final String relative = directory.relativize(path.toAbsolutePath()
+			.normalize()).toString().replace('\\', '/');
+		steps.putIfAbsent(action + "\0" + relative, new Step(action, relative,
+			size, written, read, detail));
+	}
+
+	public synchronized long count(final Action action) {
+		long result = 0;
+		for (final Step step : steps.values()) {
+			if (step.action == action) result++;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of bytes the install would write
+	 */
+	public synchronized long getWritten() {
+		long result = 0;
+		for (final Step step : steps.values()) {
+			result += step.written;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of bytes the install would read
+	 */
+	public synchronized long getRead() {
+		long result = 0;
+		for (final Step step : steps.values()) {
+			result += step.read;
+		}
+		return result;
+	}
+
+	/**
+	 * Logs the plan as a table, followed by a summary.
+	 *
+	 * @param log the log
+	 */
+	public synchronized void log(final Log log) {
+		final Map<Action, long[]> totals = new EnumMap<>(Action.class);
+		for (final Action action : Action.values()) {
+			totals.put(action, new long[2]);
+		}
+		final List<String> lines = new ArrayList<>();
+		for (final Step step : steps.values()) {
+			final long[] total = totals.get(step.action);
+			total[0]++;
+			total[1] += step.size;
+			lines.add(String.format("%-12s %10s  %s%s", step.action, format(
+				step.size), step.path, step.detail == null ? "" : " (" + step.detail +
+					")"));
+		}
+		log.info("Plan for " + directory + ":");
+		for (final String line : lines) {
+			if (line.startsWith(Action.warn.name())) log.warn(line);
+			else log.info(line);
+		}
+		for (final Action action : Action.values()) {
+			final long[] total = totals.get(action);
+			log.info(String.format("%-12s %6d files %10s", action, total[0], format(
+				total[1])));
+		}
+		log.info("Estimated I/O: " + format(getWritten()) + " written, " +
+			format(getRead()) + " read");
+	}
+
+	static String format(final long bytes) {
+		if (bytes < 1024) return bytes + " B";
+		final String units = "kMGT";
+		double value = bytes;
+		int unit = -1;
+		while (value >= 1024 && unit < units.length() - 1) {
+			value /= 1024;
+			unit++;
+		}
+		return String.format(Locale.ROOT, "%.1f %siB", value, units.charAt(unit));
+	}
+
+	private static class Step {
+
+		private final Action action;
+		private final String path;
+		private final long size, written, read;
+		private final String detail;
+
+		private Step(final Action action, final String path, final long size,
+			final long written, final long read, final String detail)
+		{
+			this.action = action;
+			this.path = path;
+			this.size = size;
+			this.written = written;
+			this.read = read;
+			this.detail = detail;
+		}
+	}
+}
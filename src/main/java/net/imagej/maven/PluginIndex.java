@@ -0,0 +1,362 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Maintains a consolidated index of the plugins in the .jar files of an
+ * ImageJ.app/ directory, {@code plugin-index.txt}.
+ * <p>
+ * The index aggregates the ImageJ 1.x {@code plugins.config} entries and the
+ * SciJava annotation indexes ({@code META-INF/json/*}) of all .jar files in
+ * {@code jars/} and {@code plugins/}. Neither ImageJ 1.x nor SciJava reads it;
+ * it is an export for custom launchers and tools that want to discover the
+ * plugins without opening every .jar file. Every .jar file is listed with
+ * its path relative to ImageJ.app/, its size and its modification time,
+ * separated by tabs; the following lines, each starting with a tab, list the
+ * name of the index resource and one line of its contents:
+ * </p>
+ *
+ * <pre>
+ * plugins/Example_PlugIn-1.0.0.jar	1234	1466424356000
+ * 	plugins.config	Plugins&gt;Example, "Example", Example_PlugIn
+ * 	META-INF/json/org.scijava.plugin.Plugin	{"class":"org.example.Cmd",...}
+ * </pre>
+ * <p>
+ * The index is updated incrementally: only the .jar files that were added,
+ * replaced or removed since the last update are opened.
+ * </p>
+ */
+class PluginIndex {
+
+	private static final String JSON_PREFIX = "META-INF/json/";
+
+	private final Path directory;
+
+	private final Path file;
+
+	/** The changes since the last save, {@code null} values mark removals. */
+	private final Map<String, Entry> changes = new LinkedHashMap<>();
+
+	private Map<String, Entry> entries;
+
+	/**
+	 * @param directory the ImageJ.app/ directory
+	 */
+	public PluginIndex(final Path directory) {
+		this.directory = directory.normalize();
+		file = this.directory.resolve("plugin-index.txt");
+	}
+
+	/**
+	 * @return whether the index exists, i.e. is maintained for the directory
+	 */
+	public boolean exists() {
+		return Files.exists(file);
+	}
+
+	/**
+	 * Records the plugins in an installed .jar file, unless the index is
+	 * already up to date with respect to it.
+	 *
+	 * @param path the installed .jar file
+	 * @param attributes the file's current attributes
+	 * @param metrics the metrics to count opened .jar files in
+	 * @throws IOException if the file could not be read
+	 */
+	public synchronized void put(final Path path,
+		final BasicFileAttributes attributes, final InstallMetrics metrics)
+		throws IOException
+	{
+		final String key = key(path);
+		final long size = attributes.size();
+		final long lastModified = attributes.lastModifiedTime().toMillis();
+		final Entry recorded = changes.containsKey(key) ? changes.get(key)
+			: entries().get(relativize(path));
+		if (recorded != null && recorded.size == size &&
+			recorded.lastModified == lastModified) return;
+
+		final List<String> lines = new ArrayList<>();
+		metrics.increment(InstallMetrics.Counter.jarsOpened);
+		try (final ZipFile jar = new ZipFile(path.toFile())) {
+			final List<ZipEntry> resources = new ArrayList<>(Collections.list(jar
+				.entries()));
+			resources.sort((a, b) -> a.getName().compareTo(b.getName()));
+			for (final ZipEntry resource : resources) {
+				final String name = resource.getName();
+				if (resource.isDirectory()) continue;
+				final boolean config = name.equals("plugins.config");
+				if (!config && !name.startsWith(JSON_PREFIX)) continue;
+				try (final BufferedReader reader = new BufferedReader(
+					new InputStreamReader(jar.getInputStream(resource),
+						StandardCharsets.UTF_8)))
+				{
+					for (;;) {
+						final String line = reader.readLine();
+						if (line == null) break;
+						final String trimmed = line.trim();
+						if (trimmed.isEmpty() || config && trimmed.startsWith("#")) {
+							continue;
+						}
+						lines.add(name + "\t" + trimmed);
+					}
+				}
+			}
+		}
+		changes.put(key, new Entry(size, lastModified, lines));
+	}
+
+	/**
+	 * Brings the index up to date with all .jar files in {@code jars/} and
+	 * {@code plugins/}, including those that were not installed by us, and
+	 * forgets about the files that are gone.
+	 *
+	 * @param metrics the metrics to count opened .jar files in
+	 * @return the .jar files that could not be read, now listed without any
+	 *         plugins
+	 * @throws IOException if the directories could not be walked
+	 */
+	public synchronized List<Path> update(final InstallMetrics metrics)
+		throws IOException
+	{
+		final List<Path> unreadable = new ArrayList<>();
+		final Set<String> found = new HashSet<>();
+		for (final String name : new String[] { "jars", "plugins" }) {
+			final Path subdirectory = directory.resolve(name);
+			if (!Files.isDirectory(subdirectory)) continue;
+			Files.walkFileTree(subdirectory, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(final Path path,
+					final BasicFileAttributes attributes) throws IOException
+				{
+					if (!attributes.isRegularFile() || !path.getFileName().toString()
+						.endsWith(".jar")) return FileVisitResult.CONTINUE;
+					found.add(relativize(path));
+					try {
+						put(path, attributes, metrics);
+					}
+					catch (final ZipException e) {
+						// list it without plugins, so it is not opened again
+						changes.put(key(path), new Entry(attributes.size(), attributes
+							.lastModifiedTime().toMillis(), new ArrayList<>()));
+						unreadable.add(path);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(final Path path,
+					final IOException e) throws IOException
+				{
+					// concurrent builds might delete files while we walk
+					if (!(e instanceof NoSuchFileException)) throw e;
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		for (final String relative : entries().keySet()) {
+			if (!found.contains(relative)) remove(directory.resolve(relative));
+		}
+		return unreadable;
+	}
+
+	/**
+	 * Forgets about a (deleted) file.
+	 *
+	 * @param path the file
+	 */
+	public synchronized void remove(final Path path) {
+		changes.put(key(path), null);
+	}
+
+	/**
+	 * Forgets about all files in a (deleted) directory.
+	 *
+	 * @param from the directory
+	 */
+	public synchronized void removeAll(final Path from) {
+		final String prefix = key(from) + File.separator;
+		changes.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	/**
+	 * Updates the paths of all files that were moved, along with the directory
+	 * containing them, to a new location.
+	 *
+	 * @param from the old location of the directory
+	 * @param to the new location of the directory
+	 */
+	public synchronized void relocate(final Path from, final Path to) {
+		final String prefix = key(from) + File.separator;
+		final String replacement = key(to) + File.separator;
+		for (final String key : new ArrayList<>(changes.keySet())) {
+			if (!key.startsWith(prefix)) continue;
+			changes.put(replacement + key.substring(prefix.length()), changes.remove(
+				key));
+		}
+	}
+
+	/**
+	 * Writes the changes to the index, merging them with the entries that
+	 * other builds wrote in the meantime.
+	 *
+	 * @throws IOException if the index could not be written
+	 */
+	public synchronized void save() throws IOException {
+		if (changes.isEmpty()) return;
+		final InstallCoordinator.Lock lock = InstallCoordinator.lockFile(
+			directory.resolve(AbstractCopyJarsMojo.STATE_DIRECTORY).resolve(
+			"plugin-index.lock"));
+		try {
+			final Map<String, Entry> merged = read(file);
+			for (final Map.Entry<String, Entry> change : changes.entrySet()) {
+				final String relative = relativize(new File(change.getKey())
+					.toPath());
+				if (change.getValue() == null) merged.remove(relative);
+				else merged.put(relative, change.getValue());
+			}
+			final Path temporary = Files.createTempFile(directory, ".plugin-index",
+				".tmp");
+			try (final BufferedWriter writer = Files.newBufferedWriter(temporary,
+				StandardCharsets.UTF_8))
+			{
+				for (final Map.Entry<String, Entry> entry : merged.entrySet()) {
+					final Entry value = entry.getValue();
+					writer.write(entry.getKey() + "\t" + value.size + "\t" +
+						value.lastModified + "\n");
+					for (final String line : value.lines) {
+						writer.write("\t" + line + "\n");
+					}
+				}
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+			entries = merged;
+		}
+		finally {
+			lock.close();
+		}
+		changes.clear();
+	}
+
+	private Map<String, Entry> entries() {
+		if (entries == null) {
+			try {
+				entries = read(file);
+			}
+			catch (final IOException e) {
+				entries = new TreeMap<>();
+			}
+		}
+		return entries;
+	}
+
+	private String relativize(final Path path) {
+		return directory.relativize(path.toAbsolutePath().normalize()).toString()
+			.replace(File.separatorChar, '/');
+	}
+
+	private static Map<String, Entry> read(final Path file) throws IOException {
+		final Map<String, Entry> result = new TreeMap<>();
+		try (final BufferedReader reader = Files.newBufferedReader(file,
+			StandardCharsets.UTF_8))
+		{
+			Entry current = null;
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				if (line.startsWith("\t")) {
+					if (current != null) current.lines.add(line.substring(1));
+					continue;
+				}
+				current = null;
+				final String[] tokens = line.split("\t");
+				if (tokens.length != 3) continue;
+				try {
+					current = new Entry(Long.parseLong(tokens[1]), Long.parseLong(
+						tokens[2]), new ArrayList<>());
+					result.put(tokens[0], current);
+				}
+				catch (final NumberFormatException e) {
+					// skip the malformed entry
+				}
+			}
+		}
+		catch (final NoSuchFileException e) {
+			// no index yet
+		}
+		return result;
+	}
+
+	private static String key(final Path path) {
+		return path.toAbsolutePath().normalize().toString();
+	}
+
+	private static class Entry {
+
+		private final long size, lastModified;
+		private final List<String> lines;
+
+		private Entry(final long size, final long lastModified,
+			final List<String> lines)
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+			this.lines = lines;
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Removes the .jar files from {@code jars/} and {@code plugins/} of an
+ * ImageJ.app/ directory that are not wanted anymore, e.g. because the
+ * dependency they were installed from was dropped.
+ * <p>
+ * The wanted files are either those of the projects in the reactor and their
+ * runtime dependencies, or the most recently installed file of every artifact in the
+ * install ledger. Everything else is removed, with two exceptions: files with
+ * a classifier such as {@code natives-linux} are only removed if a wanted file
+ * has the same base name and classifier, i.e. if they are other versions of
+ * it; and when going by the ledger, only files that are recorded in the
+ * ledger or are other versions of a recorded file are removed.
+ * </p>
+ * <p>
+ * The directories are scanned once; the file names are matched against sets
+ * of the wanted names and base names, so that the scan stays linear in the
+ * number of files. By default, the files are moved into
+ * {@code .imagej-maven-plugin/quarantine/<timestamp>/} rather than deleted.
+ * </p>
+ */
+@Mojo(name = "prune", requiresProject = false, aggregator = true,
+	requiresDependencyResolution = ResolutionScope.RUNTIME)
+public class PruneMojo extends AbstractMojo {
+
+	public enum Source {
+			dependencies, ledger
+	}
+
+	private static final List<String> EXCLUDED_SCOPES = Arrays.asList("system",
+		"provided", "test");
+
+	/**
+	 * Path to the ImageJ.app/ directory to prune.
+	 */
+	@Parameter(property = AbstractCopyJarsMojo.imagejDirectoryProperty,
+		required = true)
+	private File imagejDirectory;
+
+	/**
+	 * Where to take the wanted files from: the {@code dependencies} of all
+	 * projects in the reactor, or the install {@code ledger}.
+	 * <p>
+	 * Defaults to the dependencies when run in a project, and to the ledger
+	 * otherwise. Note that going by the dependencies removes everything the
+	 * reactor does not depend on, including files that were installed by other
+	 * means.
+	 * </p>
+	 */
+	@Parameter(property = "imagej.prune.from")
+	private Source from;
+
+	/**
+	 * Whether to move the files into quarantine instead of deleting them.
+	 */
+	@Parameter(property = "imagej.prune.quarantine", defaultValue = "true")
+	private boolean quarantine;
+
+	/**
+	 * Whether to only list the files that would be removed.
+	 */
+	@Parameter(property = "imagej.prune.dryRun", defaultValue = "false")
+	private boolean dryRun;
+
+	@Parameter(defaultValue = "${project}", readonly = true)
+	private MavenProject project;
+
+	@Parameter(defaultValue = "${session}", readonly = true)
+	private MavenSession session;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		if (!imagejDirectory.isDirectory()) {
+			throw new MojoFailureException("Not a directory: " + imagejDirectory);
+		}
+		final Path directory = imagejDirectory.toPath().toAbsolutePath()
+			.normalize();
+		final InstallCoordinator coordinator = InstallCoordinator.get(directory);
+		try {
+			final Closeable lock = dryRun ? coordinator.lockShared()
+				: coordinator.lockExclusive();
+			try {
+				final InstallLedger ledger = new InstallLedger(directory);
+				final Map<Path, String> unwanted = getSource() == Source.ledger
+					? scan(directory, ledger) : scan(directory, null);
+				if (unwanted.isEmpty()) {
+					getLog().info("Nothing to prune in " + directory);
+					return;
+				}
+				if (dryRun) {
+					for (final Map.Entry<Path, String> entry : unwanted
+						.entrySet())
+					{
+						getLog().info("Would remove " + entry.getValue() + " " +
+							directory.relativize(entry.getKey()));
+					}
+					return;
+				}
+				remove(directory, unwanted, ledger);
+			}
+			finally {
+				lock.close();
+			}
+		}
+		catch (final IOException e) {
+			throw new MojoExecutionException("Could not prune " + imagejDirectory +
+				": " + e.getMessage(), e);
+		}
+	}
+
+	private Source getSource() {
+		if (from != null) return from;
+		return project != null && project.getFile() != null
+			? Source.dependencies : Source.ledger;
+	}
+
+	/**
+	 * Collects the unwanted files in a single walk over {@code jars/} and
+	 * {@code plugins/}.
+	 *
+	 * @param directory the ImageJ.app/ directory
+	 * @param ledger the ledger to take the wanted files from, or {@code null}
+	 *          to take them from the reactor's projects
+	 * @return the unwanted files, mapped to the reason to remove them
+	 */
+	private Map<Path, String> scan(final Path directory,
+		final InstallLedger ledger) throws IOException
+	{
+		final Set<String> names = new HashSet<>();
+		final Set<String> recorded = new HashSet<>();
+		if (ledger == null) {
+			// the modules install into the same directory; keep all their files
+			for (final MavenProject module : session.getProjects()) {
+				for (final Artifact artifact : module.getArtifacts()) {
+					if (!EXCLUDED_SCOPES.contains(artifact.getScope())) {
+						names.add(AbstractCopyJarsMojo.getTargetFileName(artifact));
+					}
+				}
+				names.add(AbstractCopyJarsMojo.getTargetFileName(module
+					.getArtifact()));
+			}
+		}
+		else {
+			for (final InstallLedger.Entry entry : ledger.getLatest()) {
+				names.add(fileName(entry.getPath()));
+			}
+			for (final InstallLedger.Entry entry : ledger.getEntries()) {
+				recorded.add(entry.getPath());
+			}
+		}
+		final Set<String> keys = new HashSet<>();
+		for (final String name : names) {
+			final String key = ImageJDirectoryIndex.key(name);
+			if (key != null) keys.add(key);
+		}
+
+		final Map<Path, String> result = new LinkedHashMap<>();
+		for (final String subdirectory : new String[] { "jars", "plugins" }) {
+			final Path root = directory.resolve(subdirectory);
+			if (!Files.isDirectory(root)) continue;
+			Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(final Path path,
+					final BasicFileAttributes attributes)
+				{
+					final String name = path.getFileName().toString();
+					if (names.contains(name)) return FileVisitResult.CONTINUE;
+					final VersionedFileName parsed = VersionedFileName.parse(name);
+					if (parsed == null) return FileVisitResult.CONTINUE;
+					final boolean otherVersion = keys.contains(parsed.getKey());
+					if (otherVersion) result.put(path, "stale version");
+					else if (ledger != null) {
+						if (recorded.contains(relativize(directory, path))) {
+							result.put(path, "superseded");
+						}
+					}
+					else if (parsed.getClassifier() == null) {
+						result.put(path, "orphan");
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(final Path path,
+					final IOException e) throws IOException
+				{
+					// concurrent builds might delete files while we walk
+					if (e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+					throw e;
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Deletes or quarantines the unwanted files, and forgets about them.
+	 */
+	private void remove(final Path directory, final Map<Path, String> unwanted,
+		final InstallLedger ledger) throws IOException
+	{
+		final Path quarantineDirectory = directory.resolve(
+			AbstractCopyJarsMojo.STATE_DIRECTORY).resolve("quarantine").resolve(
+				new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+		final UpdaterChecksums checksums = new UpdaterChecksums(directory);
+		final PluginIndex index = new PluginIndex(directory);
+		int count = 0;
+		for (final Map.Entry<Path, String> entry : unwanted.entrySet()) {
+			final Path path = entry.getKey();
+			final String relative = relativize(directory, path);
+			if (quarantine) {
+				final Path target = quarantineDirectory.resolve(relative);
+				Files.createDirectories(target.getParent());
+				Files.move(path, target);
+				getLog().info("Quarantined " + entry.getValue() + " " + relative);
+			}
+			else {
+				if (!Files.deleteIfExists(path)) continue;
+				getLog().info("Deleted " + entry.getValue() + " " + relative);
+			}
+			ledger.remove(path);
+			checksums.remove(path);
+			index.remove(path);
+			count++;
+		}
+		ledger.save();
+		if (checksums.exists()) checksums.save();
+		if (index.exists()) index.save();
+		if (new CdsArchive(directory).invalidate()) {
+			getLog().info("Invalidated the CDS archive of " + directory);
+		}
+		getLog().info("Pruned " + count + " files from " + directory +
+			(quarantine ? "; see " + quarantineDirectory : ""));
+	}
+
+	private static String fileName(final String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	private static String relativize(final Path directory, final Path path) {
+		return directory.relativize(path).toString().replace(File.separatorChar,
+			'/');
+	}
+}
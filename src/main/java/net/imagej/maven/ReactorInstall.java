@@ -0,0 +1,305 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.scijava.util.VersionUtils;
+
+/**
+ * Collects the artifacts that the projects of a reactor build want to install,
+ * so that they can be installed in a single pass once all projects are done.
+ * <p>
+ * Artifacts are deduplicated by groupId, artifactId, type and classifier. If
+ * several projects need different versions of the same artifact, the highest
+ * version wins.
+ * </p>
+ * <p>
+ * If the last project never gets to install them, e.g. because it failed with
+ * {@code --fail-at-end} or was skipped, they are installed when the session
+ * ends (see {@link #installAtSessionEnd}).
+ * </p>
+ */
+class ReactorInstall {
+
+	private static final Map<MavenExecutionRequest, ReactorInstall> installs =
+		new WeakHashMap<>();
+
+	private final Set<String> projects = new HashSet<>();
+
+	private final Map<File, Map<String, Artifact>> artifacts =
+		new LinkedHashMap<>();
+
+	private final Map<Artifact, String> subdirectories = new LinkedHashMap<>();
+
+	private Installer installer;
+
+	/**
+	 * Installs artifacts that were collected but not installed.
+	 */
+	interface Installer {
+
+		/**
+		 * @param artifacts the artifacts, grouped by ImageJ.app/ directory and
+		 *          mapped to their subdirectory
+		 * @throws MojoExecutionException if an artifact could not be installed
+		 */
+		void install(Map<File, Map<Artifact, String>> artifacts)
+			throws MojoExecutionException;
+	}
+
+	/**
+	 * Obtains the collected artifacts of the current reactor build.
+	 *
+	 * @param session the current session
+	 * @return the collected artifacts
+	 */
+	public static ReactorInstall get(final MavenSession session) {
+		synchronized (installs) {
+			return installs.computeIfAbsent(session.getRequest(),
+				request -> new ReactorInstall());
+		}
+	}
+
+	/**
+	 * Adds the artifacts of a project.
+	 *
+	 * @param project the project
+	 * @param imagejDirectory the ImageJ.app/ directory to install into, or
+	 *          {@code null} if the project does not install anything
+	 * @param toInstall the artifacts, mapped to their subdirectory
+	 * @return the number of projects added so far
+	 */
+	public synchronized int add(final MavenProject project,
+		final File imagejDirectory, final Map<Artifact, String> toInstall)
+	{
+		projects.add(project.getId());
+		if (imagejDirectory == null) return projects.size();
+		final Map<String, Artifact> map = artifacts.computeIfAbsent(
+			imagejDirectory.getAbsoluteFile(), d -> new LinkedHashMap<>());
+		for (final Map.Entry<Artifact, String> entry : toInstall.entrySet()) {
+			final Artifact artifact = entry.getKey();
+			final String key = artifact.getGroupId() + ":" + artifact
+				.getArtifactId() + ":" + artifact.getType() + ":" + artifact
+					.getClassifier();
+			final Artifact other = map.get(key);
+			if (other != null) {
+				final int comparison = VersionUtils.compare(artifact.getVersion(),
+					other.getVersion());
+				if (comparison < 0 || comparison == 0 && (entry.getValue() == null ||
+					subdirectories.get(other) != null))
+				{
+					continue;
+				}
+				subdirectories.remove(other);
+			}
+			map.put(key, artifact);
+			subdirectories.put(artifact, entry.getValue());
+		}
+		return projects.size();
+	}
+
+	/**
+	 * Makes sure the collected artifacts are installed by the end of the
+	 * session, even if no project gets to {@link #remove} them.
+	 *
+	 * @param session the current session
+	 * @param fallback installs the artifacts left over when the session ends;
+	 *          the last one passed wins
+	 */
+	public synchronized void installAtSessionEnd(final MavenSession session,
+		final Installer fallback)
+	{
+		final boolean listening = installer != null;
+		installer = fallback;
+		if (listening) return;
+		final MavenExecutionRequest request = session.getRequest();
+		request.setExecutionListener(new SessionEndListener(request
+			.getExecutionListener(), session));
+	}
+
+	/**
+	 * Hands out the collected artifacts, and forgets about them.
+	 *
+	 * @param session the current session
+	 * @return the artifacts to install, grouped by ImageJ.app/ directory and
+	 *         mapped to their subdirectory
+	 */
+	public Map<File, Map<Artifact, String>> remove(final MavenSession session) {
+		synchronized (installs) {
+			installs.remove(session.getRequest());
+		}
+		synchronized (this) {
+			final Map<File, Map<Artifact, String>> result = new LinkedHashMap<>();
+			for (final Map.Entry<File, Map<String, Artifact>> entry : artifacts
+				.entrySet())
+			{
+				final Map<Artifact, String> map = new LinkedHashMap<>();
+				for (final Artifact artifact : entry.getValue().values()) {
+					map.put(artifact, subdirectories.get(artifact));
+				}
+				result.put(entry.getKey(), map);
+			}
+			artifacts.clear();
+			subdirectories.clear();
+			return result;
+		}
+	}
+
+	/**
+	 * Installs whatever is left when the session ends, before the build result
+	 * is reported, then passes all events on to the original listener.
+	 */
+	private class SessionEndListener implements ExecutionListener {
+
+		private final ExecutionListener delegate;
+
+		private final MavenSession session;
+
+		private SessionEndListener(final ExecutionListener delegate,
+			final MavenSession session)
+		{
+			this.delegate = delegate;
+			this.session = session;
+		}
+
+		@Override
+		public void sessionEnded(final ExecutionEvent event) {
+			final Map<File, Map<Artifact, String>> left = remove(session);
+			if (!left.isEmpty()) {
+				final Installer fallback;
+				synchronized (ReactorInstall.this) {
+					fallback = installer;
+				}
+				try {
+					fallback.install(left);
+				}
+				catch (final MojoExecutionException | RuntimeException e) {
+					session.getResult().addException(e);
+				}
+			}
+			if (delegate != null) delegate.sessionEnded(event);
+		}
+
+		@Override
+		public void projectDiscoveryStarted(final ExecutionEvent event) {
+			if (delegate != null) delegate.projectDiscoveryStarted(event);
+		}
+
+		@Override
+		public void sessionStarted(final ExecutionEvent event) {
+			if (delegate != null) delegate.sessionStarted(event);
+		}
+
+		@Override
+		public void projectSkipped(final ExecutionEvent event) {
+			if (delegate != null) delegate.projectSkipped(event);
+		}
+
+		@Override
+		public void projectStarted(final ExecutionEvent event) {
+			if (delegate != null) delegate.projectStarted(event);
+		}
+
+		@Override
+		public void projectSucceeded(final ExecutionEvent event) {
+			if (delegate != null) delegate.projectSucceeded(event);
+		}
+
+		@Override
+		public void projectFailed(final ExecutionEvent event) {
+			if (delegate != null) delegate.projectFailed(event);
+		}
+
+		@Override
+		public void mojoSkipped(final ExecutionEvent event) {
+			if (delegate != null) delegate.mojoSkipped(event);
+		}
+
+		@Override
+		public void mojoStarted(final ExecutionEvent event) {
+			if (delegate != null) delegate.mojoStarted(event);
+		}
+
+		@Override
+		public void mojoSucceeded(final ExecutionEvent event) {
+			if (delegate != null) delegate.mojoSucceeded(event);
+		}
+
+		@Override
+		public void mojoFailed(final ExecutionEvent event) {
+			if (delegate != null) delegate.mojoFailed(event);
+		}
+
+		@Override
+		public void forkStarted(final ExecutionEvent event) {
+			if (delegate != null) delegate.forkStarted(event);
+		}
+
+		@Override
+		public void forkSucceeded(final ExecutionEvent event) {
+			if (delegate != null) delegate.forkSucceeded(event);
+		}
+
+		@Override
+		public void forkFailed(final ExecutionEvent event) {
+			if (delegate != null) delegate.forkFailed(event);
+		}
+
+		@Override
+		public void forkedProjectStarted(final ExecutionEvent event) {
+			if (delegate != null) delegate.forkedProjectStarted(event);
+		}
+
+		@Override
+		public void forkedProjectSucceeded(final ExecutionEvent event) {
+			if (delegate != null) delegate.forkedProjectSucceeded(event);
+		}
+
+		@Override
+		public void forkedProjectFailed(final ExecutionEvent event) {
+			if (delegate != null) delegate.forkedProjectFailed(event);
+		}
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+
+/**
+ * Remembers the result of resolving a project's dependencies.
+ * <p>
+ * The result is stored together with a key, typically a digest of everything
+ * that went into the resolution (see {@link KeyBuilder}), and with the size
+ * and modification time of every resolved file. The same is stored for the
+ * POMs and repository metadata of the resolved artifacts in the local
+ * repository, which determine their transitive dependencies. The result is
+ * only reused if the key is the same and none of the files changed.
+ * </p>
+ */
+class ResolvedDependencies {
+
+	private final Path file;
+
+	/**
+	 * @param file the file to persist the resolved dependencies to
+	 */
+	public ResolvedDependencies(final File file) {
+		this.file = file.toPath();
+	}
+
+	/**
+	 * Reads the resolved dependencies, if they are still valid.
+	 *
+	 * @param key the key describing the current inputs of the resolution
+	 * @param projectArtifact the project's artifact; it is recorded without
+	 *          file, as its file changes with every build
+	 * @param handlers looks up the {@link ArtifactHandler} for a type
+	 * @return the resolved artifacts, or {@code null} if they need to be
+	 *         resolved again
+	 */
+	public List<Artifact> load(final String key, final Artifact projectArtifact,
+		final Function<String, ArtifactHandler> handlers)
+	{
+		final List<Artifact> result = new ArrayList<>();
+		try (final BufferedReader reader = Files.newBufferedReader(file,
+			StandardCharsets.UTF_8))
+		{
+			if (!("key " + key).equals(reader.readLine())) return null;
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				if (line.startsWith("#")) continue;
+				final String[] tokens = line.split("\t");
+				if (tokens.length == 4 && "stamp".equals(tokens[0])) {
+					if (!isUnchanged(Paths.get(tokens[1]), Long.parseLong(tokens[2]), Long
+						.parseLong(tokens[3])))
+					{
+						return null;
+					}
+					continue;
+				}
+				if (tokens.length != 8) return null;
+				final String[] gav = tokens[0].split(":");
+				if (gav.length != 3) return null;
+				if ("-".equals(tokens[5])) {
+					if (projectArtifact == null || projectArtifact.getFile() == null ||
+						!matches(projectArtifact, gav, tokens))
+					{
+						return null;
+					}
+					result.add(projectArtifact);
+					continue;
+				}
+				final File artifactFile = new File(tokens[5]);
+				final BasicFileAttributes attributes;
+				try {
+					attributes = FileStampCache.attributes(artifactFile.toPath());
+				}
+				catch (final IOException e) {
+					return null;
+				}
+				if (attributes.size() != Long.parseLong(tokens[6]) || attributes
+					.lastModifiedTime().toMillis() != Long.parseLong(tokens[7]))
+				{
+					return null;
+				}
+				final String classifier = "-".equals(tokens[1]) ? null : tokens[1];
+				final Artifact artifact = new DefaultArtifact(gav[0], gav[1],
+					VersionRange.createFromVersion(gav[2]), tokens[3], tokens[2],
+					classifier, handlers.apply(tokens[2]), Boolean.parseBoolean(
+						tokens[4]));
+				artifact.setFile(artifactFile);
+				result.add(artifact);
+			}
+		}
+		catch (final IOException | NumberFormatException e) {
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Determines when the resolved dependencies were recorded.
+	 *
+	 * @return the time in milliseconds since the epoch, or 0 if no resolved
+	 *         dependencies were recorded
+	 */
+	public long getLastSaved() {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		}
+		catch (final IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Records resolved dependencies.
+	 *
+	 * @param key the key describing the inputs of the resolution
+	 * @param artifacts the resolved artifacts
+	 * @param projectArtifact the project's artifact
+	 * @throws IOException if the dependencies could not be written
+	 */
+	public void save(final String key, final Iterable<Artifact> artifacts,
+		final Artifact projectArtifact) throws IOException
+	{
+		final List<String> lines = new ArrayList<>();
+		final Set<Path> stamped = new LinkedHashSet<>();
+		for (final Artifact artifact : artifacts) {
+			final File artifactFile = artifact.getFile();
+			final boolean isProject = projectArtifact != null && projectArtifact
+				.equals(artifact);
+			// without a file, the artifact could not be checked for changes
+			if (!isProject && artifactFile == null) return;
+			final String classifier = artifact.getClassifier();
+			final StringBuilder builder = new StringBuilder();
+			builder.append(artifact.getGroupId()).append(':') //
+				.append(artifact.getArtifactId()).append(':') //
+				.append(artifact.getVersion()).append('\t') //
+				.append(classifier == null || classifier.isEmpty() ? "-" : classifier)
+				.append('\t').append(artifact.getType()) //
+				.append('\t').append(artifact.getScope()) //
+				.append('\t').append(artifact.isOptional());
+			if (isProject) builder.append("\t-\t0\t0");
+			else {
+				final BasicFileAttributes attributes = FileStampCache.attributes(
+					artifactFile.toPath());
+				builder.append('\t').append(artifactFile.getAbsolutePath()) //
+					.append('\t').append(attributes.size()) //
+					.append('\t').append(attributes.lastModifiedTime().toMillis());
+				addMetadata(artifact, stamped);
+			}
+			lines.add(builder.toString());
+		}
+		for (final Path path : stamped) {
+			long size = -1, lastModified = 0;
+			try {
+				final BasicFileAttributes attributes = FileStampCache.attributes(path);
+				size = attributes.size();
+				lastModified = attributes.lastModifiedTime().toMillis();
+			}
+			catch (final NoSuchFileException e) {
+				// recorded as missing
+			}
+			lines.add("stamp\t" + path + "\t" + size + "\t" + lastModified);
+		}
+
+		Files.createDirectories(file.getParent());
+		final Path temporary = Files.createTempFile(file.getParent(), file
+			.getFileName().toString(), ".tmp");
+		try (final BufferedWriter writer = Files.newBufferedWriter(temporary,
+			StandardCharsets.UTF_8))
+		{
+			writer.write("key " + key + "\n");
+			writer.write("# groupId:artifactId:version\tclassifier\ttype\tscope" +
+				"\toptional\tfile\tsize\tlastModified\n");
+			writer.write("# stamp\tfile\tsize\tlastModified (-1 if missing)\n");
+			for (final String line : lines) {
+				writer.write(line);
+				writer.write('\n');
+			}
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Adds the POM and the repository metadata of an artifact in the local
+	 * repository, i.e. what determines its dependencies and, for version
+	 * ranges and snapshots, its version. Artifacts that do not live in a
+	 * repository, e.g. those of other projects in the reactor, have none.
+	 *
+	 * @param artifact the resolved artifact
+	 * @param paths the set to add the files to
+	 */
+	private static void addMetadata(final Artifact artifact,
+		final Set<Path> paths)
+	{
+		final Path versionDirectory = artifact.getFile().toPath().toAbsolutePath()
+			.getParent();
+		if (versionDirectory == null || !versionDirectory.getFileName().toString()
+			.equals(artifact.getBaseVersion()))
+		{
+			return;
+		}
+		final Path artifactDirectory = versionDirectory.getParent();
+		if (artifactDirectory == null || !artifactDirectory.getFileName()
+			.toString().equals(artifact.getArtifactId()))
+		{
+			return;
+		}
+
+		paths.add(versionDirectory.resolve(artifact.getArtifactId() + "-" +
+			artifact.getBaseVersion() + ".pom"));
+		for (final Path directory : new Path[] { versionDirectory,
+			artifactDirectory })
+		{
+			try (final DirectoryStream<Path> stream = Files.newDirectoryStream(
+				directory, "maven-metadata*.xml"))
+			{
+				for (final Path path : stream) {
+					paths.add(path);
+				}
+			}
+			catch (final IOException e) {
+				// no metadata
+			}
+		}
+	}
+
+	private static boolean isUnchanged(final Path path, final long size,
+		final long lastModified)
+	{
+		try {
+			final BasicFileAttributes attributes = FileStampCache.attributes(path);
+			return attributes.size() == size && attributes.lastModifiedTime()
+				.toMillis() == lastModified;
+		}
+		catch (final NoSuchFileException e) {
+			return size < 0;
+		}
+		catch (final IOException e) {
+			return false;
+		}
+	}
+
+	private static boolean matches(final Artifact artifact, final String[] gav,
+		final String[] tokens)
+	{
+		final String classifier = artifact.getClassifier();
+		return artifact.getGroupId().equals(gav[0]) && artifact.getArtifactId()
+			.equals(gav[1]) && artifact.getVersion().equals(gav[2]) && (classifier ==
+				null || classifier.isEmpty() ? "-" : classifier).equals(tokens[1]) &&
+			artifact.getType().equals(tokens[2]);
+	}
+
+	/**
+	 * Builds a key by digesting a sequence of strings.
+	 */
+	static class KeyBuilder {
+
+		private final MessageDigest digest = DigestCache.sha1();
+
+		public KeyBuilder add(final Object value) {
+			digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			return this;
+		}
+
+		public String build() {
+			return DigestCache.toHex(digest.digest());
+		}
+	}
+}
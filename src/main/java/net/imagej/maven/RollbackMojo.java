@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Restores the directories of an ImageJ.app/ directory that were replaced by
+ * the last staged install (see {@code imagej.install.staged}).
+ * <p>
+ * The rolled-back directories become the previous generation in turn, so
+ * running this goal twice restores the state before the first run.
+ * </p>
+ */
+@Mojo(name = "rollback", requiresProject = false)
+public class RollbackMojo extends AbstractMojo {
+
+	/**
+	 * Path to the ImageJ.app/ directory to roll back.
+	 */
+	@Parameter(property = AbstractCopyJarsMojo.imagejDirectoryProperty,
+		required = true)
+	private File imagejDirectory;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		if (!imagejDirectory.isDirectory()) {
+			throw new MojoFailureException("Not a directory: " + imagejDirectory);
+		}
+		try {
+			final Collection<String> restored = StagedInstall.rollback(
+				imagejDirectory.toPath());
+			if (restored.isEmpty()) {
+				getLog().warn("No previous generation found in " + imagejDirectory);
+			}
+			else {
+				getLog().info("Restored previous " + restored + " in " +
+					imagejDirectory);
+				// the archive was made for the rolled-back classpath
+				if (new CdsArchive(imagejDirectory.toPath()).invalidate()) {
+					getLog().info("Invalidated the CDS archive");
+				}
+			}
+		}
+		catch (final IOException e) {
+			throw new MojoExecutionException("Could not roll back " +
+				imagejDirectory + ": " + e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+
+/**
+ * Installs into a staging copy of some top-level directories of ImageJ.app/
+ * (e.g. {@code jars/} and {@code plugins/}), and swaps them in all at once.
+ * <p>
+ * The staging copy lives in {@code .imagej-maven-plugin/staging} and is made
+ * of hard links to the current files, so unchanged files cost neither time nor
+ * space. Since files are always installed by renaming a new file into place,
+ * the hard links never modify the current files. On {@link #commit}, every
+ * staged directory is swapped with its current counterpart by renaming; the
+ * replaced directories are kept in {@code .imagej-maven-plugin/previous} so
+ * that they can be restored by {@link #rollback}.
+ * </p>
+ */
+class StagedInstall {
+
+	private final Path directory;
+
+	private final Path root;
+
+	private final Path previous;
+
+	private final Collection<String> names;
+
+	/**
+	 * @param directory the ImageJ.app/ directory
+	 * @param names the names of the top-level directories to stage
+	 */
+	public StagedInstall(final Path directory, final Collection<String> names) {
+		this.directory = directory.normalize();
+		final Path state = this.directory.resolve(
+			AbstractCopyJarsMojo.STATE_DIRECTORY);
+		root = state.resolve("staging");
+		previous = getPrevious(this.directory);
+		this.names = new LinkedHashSet<>(names);
+	}
+
+	/**
+	 * Returns where the previous generation of the staged directories, and the
+	 * {@link InstallLedger} describing it, are kept.
+	 *
+	 * @param directory the ImageJ.app/ directory
+	 * @return the directory containing the previous generation
+	 */
+	public static Path getPrevious(final Path directory) {
+		return directory.normalize().resolve(AbstractCopyJarsMojo.STATE_DIRECTORY)
+			.resolve("previous");
+	}
+
+	/**
+	 * Returns the directory to install into instead of ImageJ.app/.
+	 *
+	 * @return the staging directory
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Populates the staging directory with links to the current files,
+	 * discarding whatever a previous, failed installation left behind.
+	 *
+	 * @throws IOException if the staging directory could not be populated
+	 */
+	public void prepare() throws IOException {
+		delete(root);
+		Files.createDirectories(root);
+		for (final String name : names) {
+			final Path current = directory.resolve(name);
+			if (Files.isDirectory(current)) mirror(current, root.resolve(name));
+		}
+	}
+
+	/**
+	 * Swaps the staged directories into place, keeping the current ones as the
+	 * previous generation.
+	 * <p>
+	 * If any of the renames fails, the directories that were already swapped
+	 * are swapped back, so that ImageJ.app/ is left as it was.
+	 * </p>
+	 *
+	 * @param ledger the {@link InstallLedger} file describing the current
+	 *          generation, to be kept with the previous generation
+	 * @throws IOException if the staged directories could not be swapped in
+	 */
+	public void commit(final Path ledger) throws IOException {
+		delete(previous);
+		Files.createDirectories(previous);
+		if (Files.exists(ledger)) {
+			Files.copy(ledger, previous.resolve(ledger.getFileName()),
+				StandardCopyOption.COPY_ATTRIBUTES);
+		}
+
+		final Deque<String> swapped = new ArrayDeque<>();
+		try {
+			for (final String name : names) {
+				if (!Files.exists(root.resolve(name))) continue;
+				swap(root.resolve(name), directory.resolve(name), previous.resolve(
+					name));
+				swapped.push(name);
+			}
+		}
+		catch (final IOException e) {
+			while (!swapped.isEmpty()) {
+				final String name = swapped.pop();
+				try {
+					swap(previous.resolve(name), directory.resolve(name), root.resolve(
+						name));
+				}
+				catch (final IOException e2) {
+					e.addSuppressed(e2);
+				}
+			}
+			throw e;
+		}
+		delete(root);
+	}
+
+	/**
+	 * Throws away the staging directory.
+	 *
+	 * @throws IOException if the staging directory could not be deleted
+	 */
+	public void discard() throws IOException {
+		delete(root);
+	}
+
+	/**
+	 * Swaps the previous generation of the staged directories (and of the
+	 * {@link InstallLedger}) back into place. Rolling back twice restores the
+	 * generation that was rolled back.
+	 * <p>
+	 * The directory is locked exclusively, like for a staged install.
+	 * </p>
+	 *
+	 * @param directory the ImageJ.app/ directory
+	 * @return the names of the restored directories, empty if there was no
+	 *         previous generation
+	 * @throws IOException if the previous generation could not be restored
+	 */
+	public static Collection<String> rollback(final Path directory)
+		throws IOException
+	{
+		// keep regular and staged installs out while swapping
+		final Closeable lock = InstallCoordinator.get(directory)
+			.lockExclusive();
+		try {
+			final StagedInstall install = new StagedInstall(directory,
+				new ArrayList<>());
+			final Collection<String> result = new ArrayList<>();
+			if (!Files.isDirectory(install.previous)) return result;
+			delete(install.root);
+			Files.createDirectories(install.root);
+			final Collection<Path> paths = new ArrayList<>();
+			try (final DirectoryStream<Path> stream = Files.newDirectoryStream(
+				install.previous))
+			{
+				for (final Path path : stream) {
+					paths.add(path);
+				}
+			}
+			for (final Path path : paths) {
+				final String name = path.getFileName().toString();
+				final Path current = install.directory.resolve(name);
+				final Path temporary = install.root.resolve(name);
+				if (Files.isDirectory(path)) {
+					swap(path, current, temporary);
+					result.add(name);
+				}
+				else {
+					// the ledger of the previous generation
+					final Path ledger = install.directory.resolve(
+						AbstractCopyJarsMojo.STATE_DIRECTORY).resolve(name);
+					if (Files.exists(ledger)) move(ledger, temporary);
+					move(path, ledger);
+				}
+				if (Files.exists(temporary, LinkOption.NOFOLLOW_LINKS)) {
+					move(temporary, path);
+				}
+			}
+			delete(install.root);
+			return result;
+		}
+		finally {
+			lock.close();
+		}
+	}
+
+	/**
+	 * Moves {@code current} (if it exists) to {@code old}, then
+	 * {@code replacement} to {@code current}.
+	 */
+	private static void swap(final Path replacement, final Path current,
+		final Path old) throws IOException
+	{
+		final boolean exists = Files.exists(current, LinkOption.NOFOLLOW_LINKS);
+		if (exists) move(current, old);
+		try {
+			move(replacement, current);
+		}
+		catch (final IOException e) {
+			if (exists) move(old, current);
+			throw e;
+		}
+	}
+
+	private static void move(final Path source, final Path target)
+		throws IOException
+	{
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (final AtomicMoveNotSupportedException e) {
+			Files.move(source, target);
+		}
+	}
+
+	/**
+	 * Recreates a directory tree using hard links, falling back to copies.
+	 */
+	private static void mirror(final Path source, final Path target)
+		throws IOException
+	{
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir,
+				final BasicFileAttributes attrs) throws IOException
+			{
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path file,
+				final BasicFileAttributes attrs) throws IOException
+			{
+				final Path link = target.resolve(source.relativize(file));
+				if (!attrs.isSymbolicLink()) {
+					try {
+						Files.createLink(link, file);
+						return FileVisitResult.CONTINUE;
+					}
+					catch (final IOException | UnsupportedOperationException e) {
+						// fall back to copying
+					}
+				}
+				Files.copy(file, link, LinkOption.NOFOLLOW_LINKS,
+					StandardCopyOption.COPY_ATTRIBUTES);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static void delete(final Path path) throws IOException {
+		if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) return;
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(final Path file,
+				final BasicFileAttributes attrs) throws IOException
+			{
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir,
+				final IOException exc) throws IOException
+			{
+				if (exc != null) throw exc;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Deletes the files of a content store (see {@code imagej.store.directory})
+ * that no registered ImageJ.app/ directory refers to anymore.
+ * <p>
+ * The references are taken from the install ledgers of the ImageJ.app/
+ * directories, including the ledgers of the previous generations kept for
+ * {@code imagej:rollback}. To be on the safe side, files that are still
+ * linked from anywhere, i.e. that have more than one hard link or are the
+ * target of a recorded symbolic link or of any symbolic link in a previous
+ * generation, are kept as well. ImageJ.app/ directories that do not exist
+ * anymore are unregistered.
+ * </p>
+ */
+@Mojo(name = "gc-store", requiresProject = false)
+public class StoreGcMojo extends AbstractMojo {
+
+	/**
+	 * Path to the content store to clean up.
+	 */
+	@Parameter(property = AbstractCopyJarsMojo.storeDirectoryProperty,
+		required = true)
+	private File storeDirectory;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		if (!storeDirectory.isDirectory()) {
+			throw new MojoFailureException("Not a directory: " + storeDirectory);
+		}
+		final ContentStore store = new ContentStore(storeDirectory.toPath());
+		try {
+			final Closeable lock = store.lockExclusive();
+			try {
+				final Set<String> referenced = getReferences(store);
+				int deleted = 0, kept = 0;
+				long bytes = 0;
+				for (final Path blob : store.getBlobs()) {
+					if (referenced.contains(store.getDigest(blob)) || isLinked(
+						blob))
+					{
+						kept++;
+						continue;
+					}
+					final long size = Files.size(blob);
+					if (Files.deleteIfExists(blob)) {
+						getLog().debug("Deleted " + blob);
+						deleted++;
+						bytes += size;
+					}
+				}
+				getLog().info("Deleted " + deleted + " unreferenced files (" +
+					bytes + " bytes) from " + storeDirectory + "; kept " + kept);
+			}
+			finally {
+				lock.close();
+			}
+		}
+		catch (final IOException e) {
+			throw new MojoExecutionException("Could not clean up " +
+				storeDirectory + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Collects the digests of all blobs the registered ImageJ.app/ directories
+	 * refer to, unregistering those that do not exist anymore.
+	 */
+	private Set<String> getReferences(final ContentStore store)
+		throws IOException
+	{
+		final Set<String> result = new HashSet<>();
+		final Collection<Path> gone = new ArrayList<>();
+		for (final Path installation : store.getInstallations()) {
+			if (!Files.isDirectory(installation)) {
+				getLog().info("Unregistering " + installation);
+				gone.add(installation);
+				continue;
+			}
+			addReferences(store, new InstallLedger(installation), result);
+
+			// the generation a staged install replaced can still be rolled back
+			final Path previous = StagedInstall.getPrevious(installation);
+			if (!Files.isDirectory(previous)) continue;
+			addReferences(store, new InstallLedger(previous, previous.resolve(
+				InstallLedger.getFile(installation).getFileName())), result);
+			Files.walkFileTree(previous, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(final Path path,
+					final BasicFileAttributes attributes) throws IOException
+				{
+					if (attributes.isSymbolicLink()) addLink(store, path, result);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		store.unregister(gone);
+		return result;
+	}
+
+	/**
+	 * Collects the digests of the files recorded in a ledger, and of the blobs
+	 * that recorded symbolic links point to.
+	 */
+	private static void addReferences(final ContentStore store,
+		final InstallLedger ledger, final Set<String> result) throws IOException
+	{
+		for (final InstallLedger.Entry entry : ledger.getEntries()) {
+			result.add(entry.getDigest());
+			final Path path = ledger.resolve(entry);
+			if (Files.isSymbolicLink(path)) addLink(store, path, result);
+		}
+	}
+
+	/**
+	 * Collects the digest of the blob a symbolic link points to, if any.
+	 */
+	private static void addLink(final ContentStore store, final Path link,
+		final Set<String> result) throws IOException
+	{
+		final String digest = store.getDigest(link.resolveSibling(Files
+			.readSymbolicLink(link)));
+		if (digest != null) result.add(digest);
+	}
+
+	/**
+	 * Determines whether a blob has other hard links than its entry in the
+	 * store, where the file system can tell.
+	 */
+	private static boolean isLinked(final Path blob) {
+		try {
+			final Object count = Files.getAttribute(blob, "unix:nlink");
+			return count instanceof Integer && (Integer) count > 1;
+		}
+		catch (final IOException | UnsupportedOperationException
+				| IllegalArgumentException e)
+		{
+			return false;
+		}
+	}
+}
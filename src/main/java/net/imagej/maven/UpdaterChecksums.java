@@ -0,0 +1,289 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Maintains the checksum cache of the ImageJ updater, {@code .checksums} in
+ * the ImageJ.app/ directory.
+ * <p>
+ * On startup, the updater checksums every file in {@code jars/} and
+ * {@code plugins/} to detect local modifications, unless the cache records
+ * the file with its current timestamp. Each line of the cache consists of the
+ * checksum, the timestamp ({@code yyyyMMddHHmmss}, UTC) and the absolute path
+ * of a file, separated by spaces.
+ * </p>
+ * <p>
+ * The checksums of .jar files are computed like the updater does: over the
+ * names and contents of all entries, ordered by name, ignoring comments in
+ * {@code .properties} files (Maven writes the build time into
+ * {@code pom.properties}) and the build-specific headers of the manifest.
+ * </p>
+ */
+class UpdaterChecksums {
+
+	private static final String[] VOLATILE_MANIFEST_HEADERS = {
+		"Archiver-Version:", "Built-By:", "Build-Jdk:", "Created-By:" };
+
+	private final Path file;
+
+	/** The changes since the last save, {@code null} values mark removals. */
+	private final Map<String, String> changes = new LinkedHashMap<>();
+
+	/**
+	 * @param directory the ImageJ.app/ directory
+	 */
+	public UpdaterChecksums(final Path directory) {
+		file = directory.normalize().resolve(".checksums");
+	}
+
+	/**
+	 * @return whether the updater's checksum cache exists
+	 */
+	public boolean exists() {
+		return Files.exists(file);
+	}
+
+	/**
+	 * Records the checksum of an installed file.
+	 *
+	 * @param path the installed file
+	 * @param checksum its checksum as computed by {@link #digest(Path)}
+	 * @throws IOException if the file's modification time could not be read
+	 */
+	public synchronized void put(final Path path, final String checksum)
+		throws IOException
+	{
+		changes.put(key(path), checksum + " " + timestamp(Files
+			.getLastModifiedTime(path).toMillis()));
+	}
+
+	/**
+	 * Forgets about a (deleted) file.
+	 *
+	 * @param path the file
+	 */
+	public synchronized void remove(final Path path) {
+		changes.put(key(path), null);
+	}
+
+	/**
+	 * Forgets about all files in a (deleted) directory.
+	 *
+	 * @param directory the directory
+	 */
+	public synchronized void removeAll(final Path directory) {
+		final String prefix = key(directory) + File.separator;
+		changes.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	/**
+	 * Updates the paths of all files that were moved, along with the directory
+	 * containing them, to a new location.
+	 *
+	 * @param from the old location of the directory
+	 * @param to the new location of the directory
+	 */
+	public synchronized void relocate(final Path from, final Path to) {
+		final String prefix = key(from) + File.separator;
+		final String replacement = key(to) + File.separator;
+		for (final String key : new ArrayList<>(changes.keySet())) {
+			if (!key.startsWith(prefix)) continue;
+			changes.put(replacement + key.substring(prefix.length()), changes.remove(
+				key));
+		}
+	}
+
+	/**
+	 * Writes the changes to the cache, merging them with the entries that the
+	 * updater or other builds wrote.
+	 *
+	 * @throws IOException if the cache could not be written
+	 */
+	public synchronized void save() throws IOException {
+		if (changes.isEmpty()) return;
+		final InstallCoordinator.Lock lock = InstallCoordinator.lockFile(file
+			.resolveSibling(AbstractCopyJarsMojo.STATE_DIRECTORY).resolve(
+			"checksums.lock"));
+		try {
+			final Map<String, String> entries = read(file);
+			boolean modified = false;
+			for (final Map.Entry<String, String> change : changes.entrySet()) {
+				final String previous = change.getValue() == null ? entries.remove(
+					change.getKey()) : entries.put(change.getKey(), change.getValue());
+				if (!Objects.equals(previous, change.getValue())) modified = true;
+			}
+			if (!modified) {
+				// unchanged files are recorded again on every run
+				changes.clear();
+				return;
+			}
+			final Path temporary = Files.createTempFile(file.getParent(),
+				".checksums", ".tmp");
+			try (final BufferedWriter writer = Files.newBufferedWriter(temporary,
+				StandardCharsets.UTF_8))
+			{
+				for (final Map.Entry<String, String> entry : entries.entrySet()) {
+					writer.write(entry.getValue() + " " + entry.getKey() + "\n");
+				}
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			lock.close();
+		}
+		changes.clear();
+	}
+
+	/**
+	 * Computes the checksum the updater uses for a .jar file.
+	 *
+	 * @param jar the .jar file
+	 * @return the checksum as hex string
+	 * @throws IOException if the file could not be read
+	 */
+	static String digest(final Path jar) throws IOException {
+		final MessageDigest digest = DigestCache.sha1();
+		try (final ZipFile zip = new ZipFile(jar.toFile())) {
+			final List<ZipEntry> entries = new ArrayList<>(Collections.list(zip
+				.entries()));
+			entries.sort((a, b) -> a.getName().compareTo(b.getName()));
+			final byte[] buffer = new byte[65536];
+			for (final ZipEntry entry : entries) {
+				final String name = entry.getName();
+				digest.update(name.getBytes(StandardCharsets.UTF_8));
+				try (final InputStream in = zip.getInputStream(entry)) {
+					if (name.endsWith(".properties")) {
+						digest.update(filter(in, null));
+					}
+					else if (name.equals("META-INF/MANIFEST.MF")) {
+						digest.update(filter(in, VOLATILE_MANIFEST_HEADERS));
+					}
+					else {
+						for (;;) {
+							final int count = in.read(buffer);
+							if (count < 0) break;
+							digest.update(buffer, 0, count);
+						}
+					}
+				}
+			}
+		}
+		return DigestCache.toHex(digest.digest());
+	}
+
+	/**
+	 * Drops the lines starting with any of the given prefixes, or the comment
+	 * lines if no prefixes are given.
+	 */
+	private static byte[] filter(final InputStream in, final String[] prefixes)
+		throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+			StandardCharsets.UTF_8));
+		lines:
+		for (;;) {
+			final String line = reader.readLine();
+			if (line == null) break;
+			if (prefixes == null) {
+				if (line.startsWith("#")) continue;
+			}
+			else {
+				for (final String prefix : prefixes) {
+					if (line.startsWith(prefix)) continue lines;
+				}
+			}
+			out.write(line.getBytes(StandardCharsets.UTF_8));
+			out.write('\n');
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Formats a modification time the way the updater records it.
+	 */
+	static String timestamp(final long millis) {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(millis));
+	}
+
+	private static Map<String, String> read(final Path file) throws IOException {
+		final Map<String, String> result = new LinkedHashMap<>();
+		try (final BufferedReader reader = Files.newBufferedReader(file,
+			StandardCharsets.UTF_8))
+		{
+			for (;;) {
+				final String line = reader.readLine();
+				if (line == null) break;
+				final int space = line.indexOf(' ');
+				final int space2 = space < 0 ? -1 : line.indexOf(' ', space + 1);
+				if (space2 < 0) continue;
+				result.put(line.substring(space2 + 1), line.substring(0, space2));
+			}
+		}
+		catch (final NoSuchFileException e) {
+			// no cache yet
+		}
+		return result;
+	}
+
+	private static String key(final Path path) {
+		return path.toAbsolutePath().normalize().toString();
+	}
+}
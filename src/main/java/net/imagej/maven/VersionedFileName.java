@@ -0,0 +1,296 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A file name split into base name, version, classifier and extension, e.g.
+ * {@code jai_imageio-4.4.0-natives-windows.jar-foo} into
+ * {@code jai_imageio}, {@code 4.4.0}, {@code natives-windows} and
+ * {@code .jar-foo}.
+ * <p>
+ * The file name is parsed by scanning it from both ends instead of using a
+ * backtracking regular expression. The result is the same as that of
+ * matching the expression
+ * </p>
+ * <pre>
+ * (.+?)(-\d+(\.\d+|\d{7})+[a-z]?\d?(-[A-Za-z0-9.]+?|\.GA)*?)?
+ * ((-(swing|swt|...|natives-linux))?(\.jar(-[a-z]*)?))
+ * </pre>
+ * <p>
+ * Parsed file names are remembered, so parsing the same name again costs a
+ * single hash lookup.
+ * </p>
+ */
+final class VersionedFileName {
+
+	private static final String[] CLASSIFIERS = { "swing", "swt", "sources",
+		"javadoc", "native", "linux-x86", "linux-x86_64", "macosx-x86_64",
+		"windows-x86", "windows-x86_64", "android-arm", "android-x86",
+		"natives-windows", "natives-macos", "natives-linux" };
+
+	/** The maximal number of remembered file names. */
+	private static final int CACHE_SIZE = 65536;
+
+	/** Marks file names that do not follow the versioning scheme. */
+	private static final VersionedFileName NONE = new VersionedFileName("", 0, 0,
+		0);
+
+	private static final Map<String, VersionedFileName> cache =
+		new ConcurrentHashMap<>();
+
+	private final String fileName;
+	private final String prefix, version, classifier, extension, suffix, key;
+
+	private VersionedFileName(final String fileName, final int versionStart,
+		final int versionEnd, final int extensionStart)
+	{
+		this.fileName = fileName;
+		prefix = fileName.substring(0, versionStart);
+		version = versionStart == versionEnd ? null : fileName.substring(
+			versionStart + 1, versionEnd);
+		classifier = versionEnd == extensionStart ? null : fileName.substring(
+			versionEnd + 1, extensionStart);
+		extension = fileName.substring(extensionStart);
+		suffix = fileName.substring(versionEnd);
+		key = prefix + "\0" + suffix;
+	}
+
+	/**
+	 * Parses a file name.
+	 *
+	 * @param fileName the file name
+	 * @return the parsed file name, or {@code null} if it does not follow the
+	 *         versioning scheme, i.e. does not end in {@code .jar}
+	 */
+	public static VersionedFileName parse(final String fileName) {
+		VersionedFileName result = cache.get(fileName);
+		if (result == null) {
+			result = doParse(fileName);
+			if (result == null) result = NONE;
+			if (cache.size() >= CACHE_SIZE) cache.clear();
+			cache.put(fileName, result);
+		}
+		return result == NONE ? null : result;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return the base name, e.g. {@code jai_imageio}
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @return the version, e.g. {@code 4.4.0}, or {@code null} if the file name
+	 *         does not contain a version
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the classifier, e.g. {@code natives-windows}, or {@code null}
+	 */
+	public String getClassifier() {
+		return classifier;
+	}
+
+	/**
+	 * @return the extension, e.g. {@code .jar-foo}
+	 */
+	public String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * @return the classifier (including the leading dash) and the extension,
+	 *         e.g. {@code -natives-windows.jar-foo}
+	 */
+	public String getSuffix() {
+		return suffix;
+	}
+
+	/**
+	 * @return the base name and suffix, identifying all versions of the same
+	 *         file
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	@Override
+	public String toString() {
+		return fileName;
+	}
+
+	/**
+	 * Parses a file name without consulting the remembered file names.
+	 *
+	 * @param name the file name
+	 * @return the parsed file name, or {@code null}
+	 */
+	static VersionedFileName doParse(final String name) {
+		// the extension: the last .jar, optionally followed by -[a-z]*
+		final int extension = name.lastIndexOf(".jar");
+		if (extension < 1) return null;
+		final int length = name.length();
+		if (extension + 4 < length) {
+			if (name.charAt(extension + 4) != '-') return null;
+			for (int i = extension + 5; i < length; i++) {
+				if (!isLowerCase(name.charAt(i))) return null;
+			}
+		}
+
+		// the classifier, if any
+		int classifier = -1;
+		for (final String candidate : CLASSIFIERS) {
+			final int start = extension - candidate.length() - 1;
+			if (start >= 1 && name.charAt(start) == '-' && name.startsWith(
+				candidate, start + 1))
+			{
+				classifier = start;
+				break;
+			}
+		}
+
+		// the shortest base name that is followed by a valid version or suffix
+		for (int i = 1; i <= extension; i++) {
+			if (isLineTerminator(name.charAt(i - 1))) return null;
+			if (classifier > i && isVersion(name, i, classifier)) {
+				return new VersionedFileName(name, i, classifier, extension);
+			}
+			if (isVersion(name, i, extension)) {
+				return new VersionedFileName(name, i, extension, extension);
+			}
+			if (i == classifier) {
+				return new VersionedFileName(name, i, i, extension);
+			}
+			if (i == extension) {
+				return new VersionedFileName(name, i, i, extension);
+			}
+		}
+		return null;
+	}
+
+	// the states of the automaton matching
+	// -\d+(\.\d+|\d{7})+[a-z]?\d?(-[A-Za-z0-9.]+|\.GA)*
+
+	private static final int DASH = 1;
+	private static final int DIGITS = 1 << 1;
+	private static final int DOT = 1 << 2;
+	private static final int DOT_DIGITS = 1 << 3;
+	private static final int SEVEN_DIGITS = 1 << 4; // 7 states
+	private static final int SEVEN_DIGITS_DONE = SEVEN_DIGITS << 6;
+	private static final int LETTER = 1 << 11;
+	private static final int DIGIT = 1 << 12;
+	private static final int QUALIFIER_DASH = 1 << 13;
+	private static final int QUALIFIER = 1 << 14;
+	private static final int GA_DOT = 1 << 15;
+	private static final int GA_G = 1 << 16;
+	private static final int GA_A = 1 << 17;
+
+	private static final int ACCEPT = DOT_DIGITS | SEVEN_DIGITS_DONE | LETTER |
+		DIGIT | QUALIFIER | GA_A;
+
+	/**
+	 * Tests whether a part of a file name is a version, including the leading
+	 * dash.
+	 */
+	private static boolean isVersion(final String name, final int start,
+		final int end)
+	{
+		if (end - start < 4 || name.charAt(start) != '-' || !isDigit(name.charAt(
+			start + 1)))
+		{
+			return false;
+		}
+		int states = DIGITS;
+		for (int i = start + 2; i < end && states != 0; i++) {
+			final char c = name.charAt(i);
+			final boolean digit = isDigit(c);
+			int next = 0;
+			if ((states & DIGITS) != 0) {
+				if (digit) next |= DIGITS | SEVEN_DIGITS;
+				else if (c == '.') next |= DOT;
+			}
+			if ((states & DOT) != 0 && digit) next |= DOT_DIGITS;
+			if ((states & DOT_DIGITS) != 0 && digit) next |= DOT_DIGITS;
+			if (digit) {
+				// advance the counters of \d{7}
+				next |= (states & (SEVEN_DIGITS_DONE - SEVEN_DIGITS)) << 1;
+			}
+			if ((states & (DOT_DIGITS | SEVEN_DIGITS_DONE)) != 0) {
+				// another (\.\d+|\d{7}), or [a-z]?\d?
+				if (digit) next |= SEVEN_DIGITS | DIGIT;
+				else if (c == '.') next |= DOT;
+				else if (isLowerCase(c)) next |= LETTER;
+			}
+			if ((states & LETTER) != 0 && digit) next |= DIGIT;
+			if ((states & ACCEPT) != 0) {
+				// start of (-[A-Za-z0-9.]+|\.GA)
+				if (c == '-') next |= QUALIFIER_DASH;
+				else if (c == '.') next |= GA_DOT;
+			}
+			if ((states & (QUALIFIER_DASH | QUALIFIER)) != 0 && isQualifier(c)) {
+				next |= QUALIFIER;
+			}
+			if ((states & GA_DOT) != 0 && c == 'G') next |= GA_G;
+			if ((states & GA_G) != 0 && c == 'A') next |= GA_A;
+			states = next;
+		}
+		return (states & ACCEPT) != 0;
+	}
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLowerCase(final char c) {
+		return c >= 'a' && c <= 'z';
+	}
+
+	private static boolean isQualifier(final char c) {
+		return isDigit(c) || isLowerCase(c) || (c >= 'A' && c <= 'Z') || c == '.';
+	}
+
+	private static boolean isLineTerminator(final char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' ||
+			c == '\u2029';
+	}
+}
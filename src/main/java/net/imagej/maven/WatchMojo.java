@@ -0,0 +1,261 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2012 - 2016 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Keeps an ImageJ.app/ directory in sync with the project while developing
+ * it.
+ * <p>
+ * After installing the project's .jar file and its dependencies once, like
+ * {@code copy-jars}, this goal keeps running and watches the project's build
+ * directory and the SNAPSHOT dependencies in the local repository (release
+ * artifacts never change). Whenever the .jar file of one of them is
+ * rewritten, e.g. by {@code mvn package} in another terminal or by the IDE,
+ * only that artifact is installed again. The resolved dependencies and the
+ * digests stay in memory, so this takes milliseconds instead of a full Maven
+ * build.
+ * </p>
+ * <p>
+ * The ImageJ.app/ directory is locked only while a batch of changes is
+ * installed, so that staged installs and the {@code prune} goal do not have
+ * to wait until the watch ends. As the directory might have been modified in
+ * between, every batch looks at the directory's contents anew.
+ * </p>
+ */
+@Mojo(name = "watch", requiresProject = true,
+	requiresDependencyResolution = ResolutionScope.RUNTIME)
+public class WatchMojo extends AbstractCopyJarsMojo {
+
+	private static final List<String> EXCLUDED_SCOPES = Arrays.asList("system",
+		"provided", "test");
+
+	/**
+	 * Path to the ImageJ.app/ directory to keep in sync.
+	 */
+	@Parameter(property = imagejDirectoryProperty, required = true)
+	private File imagejDirectory;
+
+	/**
+	 * The subdirectory (beneath e.g. {@code jars/} or {@code plugins/}) to
+	 * which the project's .jar file should be copied.
+	 */
+	@Parameter(property = imagejSubdirectoryProperty, required = false)
+	private String imagejSubdirectory;
+
+	/**
+	 * What to do with other versions of the installed files.
+	 */
+	@Parameter(property = deleteOtherVersionsPolicyProperty,
+		defaultValue = "older")
+	private OtherVersions deleteOtherVersionsPolicy;
+
+	/**
+	 * How long a changed file has to stay unchanged before it is installed, in
+	 * milliseconds, so that .jar files are not installed while still being
+	 * written.
+	 */
+	@Parameter(property = "imagej.watch.delay", defaultValue = "100")
+	private long delay;
+
+	/**
+	 * After how many seconds without changes to stop watching; {@code 0}
+	 * watches until interrupted.
+	 */
+	@Parameter(property = "imagej.watch.idleTimeout", defaultValue = "0")
+	private long idleTimeout;
+
+	@Parameter(defaultValue = "${project}", required = true, readonly = true)
+	private MavenProject project;
+
+	@Parameter(defaultValue = "${session}", readonly = true)
+	private MavenSession session;
+
+	@Override
+	protected File getCacheDirectory() {
+		return getCacheDirectory(session.getLocalRepository());
+	}
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		if (!imagejDirectory.isDirectory()) {
+			throw new MojoFailureException("Not an ImageJ.app/ directory: " +
+				imagejDirectory);
+		}
+
+		final Artifact projectArtifact = project.getArtifact();
+		if (projectArtifact.getFile() == null || projectArtifact.getFile()
+			.isDirectory())
+		{
+			// not packaged in this build; watch for the .jar file to appear
+			projectArtifact.setFile(new File(project.getBuild().getDirectory(),
+				project.getBuild().getFinalName() + ".jar"));
+		}
+		final Map<Artifact, String> artifacts = new LinkedHashMap<>();
+		artifacts.put(projectArtifact, imagejSubdirectory);
+		for (final Artifact artifact : project.getArtifacts()) {
+			if (!EXCLUDED_SCOPES.contains(artifact.getScope())) {
+				artifacts.put(artifact, null);
+			}
+		}
+
+		try (final WatchService watcher = FileSystems.getDefault()
+			.newWatchService())
+		{
+			// the files to watch, by directory
+			final Map<Path, List<Artifact>> watched = new HashMap<>();
+			for (final Artifact artifact : artifacts.keySet()) {
+				if (artifact != projectArtifact && !artifact.isSnapshot()) continue;
+				final Path directory = artifact.getFile().toPath().toAbsolutePath()
+					.getParent();
+				if (!watched.containsKey(directory)) {
+					directory.toFile().mkdirs();
+					directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				}
+				watched.computeIfAbsent(directory, d -> new ArrayList<>()).add(
+					artifact);
+			}
+
+			final Map<Artifact, String> stamps = new HashMap<>();
+			sync(artifacts, artifacts.keySet(), stamps);
+			getLog().info("Watching " + watched.size() +
+				" directories for changes; press Ctrl+C to stop");
+
+			for (;;) {
+				final WatchKey first = idleTimeout > 0 ? watcher.poll(idleTimeout,
+					TimeUnit.SECONDS) : watcher.take();
+				if (first == null) {
+					getLog().info("No changes for " + idleTimeout +
+						" seconds; stopping");
+					return;
+				}
+				// wait until the files stop changing
+				final Set<Path> touched = new LinkedHashSet<>();
+				for (WatchKey key = first; key != null; key = watcher.poll(delay,
+					TimeUnit.MILLISECONDS))
+				{
+					touched.add((Path) key.watchable());
+					key.pollEvents();
+					key.reset();
+				}
+				final Set<Artifact> candidates = new LinkedHashSet<>();
+				for (final Path directory : touched) {
+					candidates.addAll(watched.get(directory));
+				}
+				try {
+					sync(artifacts, candidates, stamps);
+				}
+				catch (final MojoExecutionException e) {
+					// keep watching; the next change might fix it
+					getLog().error(e.getMessage(), e);
+				}
+			}
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			getLog().info("Stopped watching");
+		}
+		catch (final ClosedWatchServiceException e) {
+			getLog().info("Stopped watching");
+		}
+		catch (final IOException e) {
+			throw new MojoExecutionException("Could not watch for changes: " + e
+				.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Installs those of the candidates whose files changed since they were
+	 * last installed.
+	 *
+	 * @param artifacts all artifacts, mapped to their subdirectories
+	 * @param candidates the artifacts that might have changed
+	 * @param stamps the sizes and modification times of the files when they
+	 *          were last installed, updated by this method
+	 */
+	private void sync(final Map<Artifact, String> artifacts,
+		final Set<Artifact> candidates, final Map<Artifact, String> stamps)
+		throws MojoExecutionException
+	{
+		final Map<Artifact, String> changed = new LinkedHashMap<>();
+		for (final Artifact artifact : candidates) {
+			final File file = artifact.getFile();
+			if (!file.isFile()) {
+				getLog().info("Waiting for " + file);
+				continue;
+			}
+			final String stamp = file.length() + "," + file.lastModified();
+			if (stamp.equals(stamps.put(artifact, stamp))) continue;
+			changed.put(artifact, artifacts.get(artifact));
+		}
+		if (changed.isEmpty()) return;
+		final long start = System.nanoTime();
+		try {
+			installArtifacts(changed, imagejDirectory, false,
+				deleteOtherVersionsPolicy, 1);
+		}
+		catch (final MojoExecutionException e) {
+			// try again on the next change
+			stamps.keySet().removeAll(changed.keySet());
+			throw e;
+		}
+		getLog().info(String.format("Synced %d artifacts in %.1f ms", changed
+			.size(), (System.nanoTime() - start) / 1e6));
+	}
+}